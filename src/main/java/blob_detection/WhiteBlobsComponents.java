@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 
 import cellTracking.BlobDetector;
+import cellTracking.ScaleSpace;
 import cellTracking.WhiteBlobsDetection;
 import ij.process.ImageProcessor;
 import point.PointWithScale;
@@ -18,8 +19,13 @@ public class WhiteBlobsComponents {
 	final private int maxDistance = 150; // for blob's sortValue
 
 	public WhiteBlobsComponents(ImageProcessor intensityImage, int blobsCount) {
-		image = intensityImage;
-		BlobDetector detector = new BlobDetector(image, null, sigmas);
+		this(new ScaleSpace(intensityImage), false, blobsCount);
+	}
+
+	/* blobs of the scale space image (or of the inverted one) */
+	public WhiteBlobsComponents(ScaleSpace scaleSpace, boolean inverted, int blobsCount) {
+		image = scaleSpace.getImage();
+		BlobDetector detector = new BlobDetector(scaleSpace, null, sigmas, inverted);
 		blobs = detector.findBlobsByLocalMaximaAsPoints(0.001f, true, blobsCount, 2, 2, false);
 		used = new boolean[blobs.size()];
 	}
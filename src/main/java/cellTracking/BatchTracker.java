@@ -0,0 +1,354 @@
+package cellTracking;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import graph.CellTrackingGraph;
+import graph.MappedLabelStack;
+import ij.IJ;
+import ij.ImagePlus;
+
+/*
+ * headless runner of the whole Cell_Tracker pipeline for many stacks:
+ * segmentation, tracking, mitosis analysis and CTC output. Usage:
+ *
+ * java cellTracking.BatchTracker [options] inputs...
+ *
+ * inputs are tif files, directories (all tif files in them) or glob patterns in
+ * the file name, e.g. /data/plate1/well_*.tif. Options:
+ *   --params=file.properties  parameters, keys are the names of the fields below
+ *   --<parameter>=value       parameter, overrides the properties file
+ *   --list=file               file with an input per line
+ *   --out=dir                 folder for results, by default the folder of the input
+ *   --threads=n               stacks processed at the same time
+ *   --slice-threads=n         threads for segmentation of one stack
+ *   --window=n                slices with images in memory, the others are kept
+ *                             in files in --spillDir (temp folder by default).
+ *                             0 keeps the whole stack in memory
+ *   --mappedLabels            result images in a memory-mapped file, which is
+ *                             moved to the result tif. On by default with --window
+ *   --cacheDir=dir            segmentation results are saved there and reused
+ *                             when the same file is tracked again with the same
+ *                             segmentation parameters
+ *
+ * For every input "name.tif" the files name_tracking_results.tif,
+ * name_tracking_results.txt and name_lineage.bin are written, the same as
+ * the plugin writes them
+ */
+public class BatchTracker {
+	/* segmentation parameters, dialog ones of Cell_Tracker */
+	public int maximumNumberOfBlobs = 60;
+	public double gaussianSigma = 2;
+	public int rollingBallRadius = 20;
+	public double gradientSigma = 0.80;
+	public int minArea = 100;
+	public int maxArea = 1400;
+	public float minCircularity = 0.55f;
+	public float maxCircularity = 1.0f;
+	public float blobMergeThreshold = 0.32f;
+	public boolean filterComponents = true;
+
+	/* tracking parameters */
+	public float childPenaltyThreshold = 0.275f;
+	public float mitosisStartIntensityCoefficient = 1.00f;
+	public boolean globalLinking = false;
+	public int maxRadiusDark = 25;
+	public int slices = 3;
+	public double oneSliceScoreThreshold = 0.33;
+	public double scoreThreshold = 0.6;
+	public double timeDecayCoefficient = 0.3;
+
+	public String outputDir = null;
+	public int threads = Runtime.getRuntime().availableProcessors();
+	public int sliceThreads = 1;
+	/*
+	 * out-of-core mode if > 0: the stack is read as a virtual stack and images of
+	 * only "window" slices are in memory. It is raised to the slices looked through
+	 * by multi-slice tracking plus mitosis lookahead
+	 */
+	public int window = 0;
+	public String spillDir = null;
+	/*
+	 * result label images in a memory-mapped tiff next to the result, not on the
+	 * heap. Always used in out-of-core mode
+	 */
+	public boolean mappedLabels = false;
+	/* folder of the segmentation cache, no cache if null */
+	public String cacheDir = null;
+
+	/* sets the parameter by field name, returns false if there is no such parameter */
+	public boolean setParameter(String name, String value) {
+		try {
+			Field field = BatchTracker.class.getField(name);
+			Class<?> type = field.getType();
+			if (type == int.class)
+				field.setInt(this, Integer.parseInt(value.trim()));
+			else if (type == double.class)
+				field.setDouble(this, Double.parseDouble(value.trim()));
+			else if (type == float.class)
+				field.setFloat(this, Float.parseFloat(value.trim()));
+			else if (type == boolean.class)
+				field.setBoolean(this, Boolean.parseBoolean(value.trim()));
+			else
+				field.set(this, value.trim());
+			return true;
+		} catch (NoSuchFieldException e) {
+			return false;
+		} catch (IllegalAccessException e) {
+			return false;
+		}
+	}
+
+	public void loadParameters(String propertiesFile) throws IOException {
+		Properties p = new Properties();
+		InputStream in = new FileInputStream(propertiesFile);
+		try {
+			p.load(in);
+		} finally {
+			in.close();
+		}
+		for (String name : p.stringPropertyNames())
+			if (!setParameter(name, p.getProperty(name)))
+				System.out.println("Unknown parameter " + name + " in " + propertiesFile);
+	}
+
+	public SegmentationEngine createSegmentationEngine() {
+		SegmentationEngine engine = new SegmentationEngine();
+		engine.maximumNumberOfBlobs = maximumNumberOfBlobs;
+		engine.gaussianSigma = gaussianSigma;
+		engine.rollingBallRadius = rollingBallRadius;
+		engine.gradientSigma = gradientSigma;
+		engine.minArea = minArea;
+		engine.maxArea = maxArea;
+		engine.minCircularity = minCircularity;
+		engine.maxCircularity = maxCircularity;
+		engine.blobMergeThreshold = blobMergeThreshold;
+		engine.filterComponents = filterComponents;
+		return engine;
+	}
+
+	/* runs the pipeline for one stack and writes the results */
+	public void processFile(File input) throws Exception {
+		long startTime = System.currentTimeMillis();
+		SegmentationEngine engine = createSegmentationEngine();
+		SegmentationCache cache = null;
+		String key = null;
+		if (cacheDir != null) {
+			cache = new SegmentationCache(new File(cacheDir));
+			key = SegmentationCache.key(input, engine);
+		}
+		boolean cached = cache != null && cache.contains(key);
+
+		ImagePlus imp = null;
+		if (window > 0 || cached) // pixels are not read if the segmentation is cached
+			imp = IJ.openVirtual(input.getPath());
+		if (imp == null)
+			imp = IJ.openImage(input.getPath());
+		if (imp == null)
+			throw new IOException("can't open image " + input);
+
+		File dir = outputDir != null ? new File(outputDir) : input.getAbsoluteFile().getParentFile();
+		String name = imp.getShortTitle();
+		String tifPath = new File(dir, name + "_tracking_results.tif").getPath();
+		String txtPath = new File(dir, name + "_tracking_results.txt").getPath();
+		String infoFilePath = new File(dir, name + "_lineage.bin").getPath();
+
+		FrameStore store = null;
+		MappedLabelStack labels = null;
+		try {
+			if (window > 0) {
+				File spill = new File(spillDir != null ? spillDir : System.getProperty("java.io.tmpdir"),
+						name + "_frames_" + System.nanoTime());
+				store = new FrameStore(spill, Math.max(window, slices + 3));
+			}
+			if (window > 0 || mappedLabels)
+				labels = new MappedLabelStack(new File(tifPath + ".part"), imp.getWidth(), imp.getHeight(),
+						imp.getStackSize());
+			NearestNeighbourTracking tracking = segment(imp, engine, store, cache, key);
+			track(imp, tracking, labels, infoFilePath, tifPath, txtPath);
+		} finally {
+			if (store != null)
+				store.close();
+			if (labels != null) {
+				labels.close();
+				if (!labels.getFile().getPath().equals(tifPath)) // failed, or copied instead of moved
+					labels.getFile().delete();
+			}
+		}
+		System.out.println(input.getName() + ": " + (System.currentTimeMillis() - startTime) / 1000.0 + " s");
+	}
+
+	/* tracking with segmented slices, from the cache if it has them */
+	private NearestNeighbourTracking segment(ImagePlus imp, SegmentationEngine engine, FrameStore store,
+			SegmentationCache cache, String key) throws Exception {
+		NearestNeighbourTracking tracking = new NearestNeighbourTracking();
+		if (store != null)
+			tracking.setFrameStore(store);
+		if (cache != null) {
+			try {
+				if (cache.load(key, tracking)) {
+					System.out.println(imp.getShortTitle() + ": segmentation read from " + cache.getFile(key));
+					return tracking;
+				}
+			} catch (IOException e) {
+				System.out.println(imp.getShortTitle() + ": can't read segmentation cache, segmenting again. "
+						+ e.getMessage());
+				tracking = new NearestNeighbourTracking();
+				if (store != null)
+					tracking.setFrameStore(store);
+			}
+		}
+
+		engine.segmentStack(imp.getStack(), sliceThreads, tracking);
+		imp.flush(); // the original stack is not needed anymore
+		if (cache != null)
+			cache.save(key, tracking.getComponentsList());
+		return tracking;
+	}
+
+	private void track(ImagePlus imp, NearestNeighbourTracking tracking, MappedLabelStack labels,
+			String infoFilePath, String tifPath, String txtPath) throws Exception {
+		tracking.trackComponentsOneSlice(maxRadiusDark, oneSliceScoreThreshold,
+				globalLinking ? NearestNeighbourTracking.LinkingMode.ASSIGNMENT
+						: NearestNeighbourTracking.LinkingMode.GREEDY);
+		tracking.trackComponentsMultiSlice(maxRadiusDark, slices, scoreThreshold, timeDecayCoefficient);
+		tracking.fillTracks();
+
+		tracking.analyzeTracksForMitosisByAverageIntensity(mitosisStartIntensityCoefficient);
+		tracking.analyzeTracksForMitosisByWhiteBlob(0.5f);
+		tracking.startMitosisTracking(30, childPenaltyThreshold);
+
+		CellTrackingGraph resultGraph = new CellTrackingGraph(tracking, null, null, infoFilePath, labels);
+		if (resultGraph.getImagesCount() > 0)
+			resultGraph.saveTrackedComponentImages(tifPath); // the mapped file is moved, not written again
+		int tracksCount = resultGraph.writeTracksToFile_ctc_afterAnalysis(txtPath);
+		System.out.println(imp.getShortTitle() + ": " + tracksCount + " tracks");
+	}
+
+	/*
+	 * processes inputs with "threads" stacks at the same time. Returns the number
+	 * of inputs that failed, a failed input doesn't stop the others
+	 */
+	public int processFiles(ArrayList<File> inputs) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, inputs.size())));
+		ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>(inputs.size());
+		for (final File input : inputs)
+			futures.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					processFile(input);
+					return null;
+				}
+			}));
+		pool.shutdown();
+
+		int failed = 0;
+		for (int i = 0; i < inputs.size(); i++) {
+			try {
+				futures.get(i).get();
+			} catch (Exception e) {
+				failed++;
+				System.out.println("Failed: " + inputs.get(i));
+				(e.getCause() != null ? e.getCause() : e).printStackTrace();
+			}
+		}
+		return failed;
+	}
+
+	/* file, directory with tif files or glob pattern in the file name */
+	public static void addInputs(String arg, ArrayList<File> inputs) throws IOException {
+		File file = new File(arg);
+		if (file.isDirectory()) {
+			addMatching(file.toPath(), "*.{tif,tiff,TIF,TIFF}", inputs);
+		} else if (file.getName().indexOf('*') != -1 || file.getName().indexOf('?') != -1) {
+			File parent = file.getAbsoluteFile().getParentFile();
+			addMatching(parent.toPath(), file.getName(), inputs);
+		} else {
+			inputs.add(file);
+		}
+	}
+
+	private static void addMatching(Path dir, String glob, ArrayList<File> inputs) throws IOException {
+		ArrayList<File> found = new ArrayList<File>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob);
+		try {
+			for (Path p : stream)
+				if (Files.isRegularFile(p))
+					found.add(p.toFile());
+		} finally {
+			stream.close();
+		}
+		Collections.sort(found);
+		inputs.addAll(found);
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		BatchTracker batch = new BatchTracker();
+		ArrayList<File> inputs = new ArrayList<File>();
+
+		// properties file first, so parameters in the command line override it
+		for (String arg : args)
+			if (arg.startsWith("--params="))
+				batch.loadParameters(arg.substring("--params=".length()));
+
+		for (String arg : args) {
+			if (!arg.startsWith("--")) {
+				addInputs(arg, inputs);
+				continue;
+			}
+			int eq = arg.indexOf('=');
+			String key = eq == -1 ? arg.substring(2) : arg.substring(2, eq);
+			String value = eq == -1 ? "true" : arg.substring(eq + 1);
+			if (key.equals("params"))
+				continue;
+			else if (key.equals("list")) {
+				BufferedReader reader = new BufferedReader(new FileReader(value));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null)
+						if (!line.trim().isEmpty())
+							addInputs(line.trim(), inputs);
+				} finally {
+					reader.close();
+				}
+			} else if (key.equals("out"))
+				batch.outputDir = value;
+			else if (key.equals("slice-threads"))
+				batch.sliceThreads = Integer.parseInt(value);
+			else if (!batch.setParameter(key, value)) {
+				System.out.println("Unknown option " + arg);
+				System.exit(2);
+			}
+		}
+
+		if (inputs.isEmpty()) {
+			System.out.println("Usage: java cellTracking.BatchTracker [--params=file] [--out=dir] [--threads=n] "
+					+ "[--slice-threads=n] [--window=n] [--mappedLabels] [--cacheDir=dir] [--<parameter>=value] [--list=file] inputs...");
+			System.exit(2);
+		}
+		if (batch.outputDir != null)
+			Files.createDirectories(Paths.get(batch.outputDir));
+
+		System.out.println("Processing " + inputs.size() + " stacks, " + batch.threads + " at a time");
+		int failed = batch.processFiles(inputs);
+		System.out.println("Done, " + (inputs.size() - failed) + " processed, " + failed + " failed");
+		System.exit(failed == 0 ? 0 : 1);
+	}
+}
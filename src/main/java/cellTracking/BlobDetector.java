@@ -7,112 +7,50 @@ import point.Point;
 import point.PointWithScale;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /* Blob detection using Hessian */
 public class BlobDetector {
 
 	private ImageProcessor ip;
-	private ImageProcessor mask;
+	private ComponentMask mask; // blobs are searched only inside, null for the whole image
 	/* array of sigmas used for different scales */
 	private float[] scaleSigmas;
 	/* stack of hessians with different sigmas */
 	private Hessian[] hessians;
+	/* buffers for hessian responses, one per sigma, reused between calls */
+	private float[][] responses;
 
-	public BlobDetector(ImageProcessor image, ImageProcessor blobs_mask, float[] sigmas) {
-		ip = image;
+	public BlobDetector(ImageProcessor image, ComponentMask blobs_mask, float[] sigmas) {
+		this(new ScaleSpace(image), blobs_mask, sigmas, false);
+	}
+
+	/*
+	 * takes hessians from the scale space, so they can be shared between
+	 * detectors. If "inverted", blobs are detected in the inverted image
+	 */
+	public BlobDetector(ScaleSpace scaleSpace, ComponentMask blobs_mask, float[] sigmas, boolean inverted) {
+		ip = scaleSpace.getImage();
 		mask = blobs_mask;
 		scaleSigmas = sigmas;
 		hessians = new Hessian[sigmas.length];
-		for (int i = 0; i < hessians.length; i++) {
-			hessians[i] = new Hessian(ip);
-			hessians[i].calculateHessian(sigmas[i]);
-		}
+		for (int i = 0; i < hessians.length; i++)
+			hessians[i] = scaleSpace.getHessian(sigmas[i], inverted);
 	}
 
 	/* returns N maxima blobs as a list of points */
 	public ArrayList<PointWithScale> findBlobsByLocalMaximaAsPoints(float thresholdLambda, boolean useLaplacian,
 			int leaveNMax, int k_x_radius, int k_y_radius, boolean considerFirstSigmaAsMaxima) {
 		ImageProcessor stack[] = new ImageProcessor[hessians.length];
-		ArrayList<PointWithScale> list = new ArrayList<PointWithScale>(5);
-		for (int z = 0; z < hessians.length; z++) {
-			if (useLaplacian) {
-				stack[z] = hessians[z].getLambda2();
-				ImageProcessorCalculator.add(stack[z], hessians[z].getLambda1()); // laplacian
-				ImageProcessorCalculator.add(stack[z], hessians[z].getLambda1()); // laplacian + lambda 1
-			} else
-				stack[z] = hessians[z].getLambda1();
-		}
-		ByteProcessor result = new ByteProcessor(ip.getWidth(), ip.getHeight());
-		ArrayList<Float> maxima_v = new ArrayList<Float>(20);
-		ArrayList<Integer> maxima_x = new ArrayList<Integer>(20);
-		ArrayList<Integer> maxima_y = new ArrayList<Integer>(20);
-		ArrayList<Integer> maxima_z = new ArrayList<Integer>(20);
-		
-		int zStackStart = considerFirstSigmaAsMaxima?0:1;
-		for (int y = k_y_radius; y < ip.getHeight() - k_y_radius; y++)
-			for (int x = k_x_radius; x < ip.getWidth() - k_x_radius; x++) {
-				result.setf(x, y, 0);
-				if (mask != null && mask.get(x, y) <= 0)
-					continue;
-				for (int z = zStackStart; z < hessians.length; z++) {
-					if (isLocalMaximumThresholded3D(stack, x, y, z, thresholdLambda, k_x_radius, k_y_radius))
-						if (leaveNMax != -1) {
-							maxima_x.add(x);
-							maxima_y.add(y);
-							maxima_z.add(z);
-							maxima_v.add(stack[z].getf(x, y));
-						} else {
-							list.add(new PointWithScale(x, y, scaleSigmas[z], stack[z].getf(x, y)));
-						}
-				}
-			}
-
-		if (leaveNMax != -1) {
-			// sort max list
-			int max_j = -1;
-			float max = -1;
-			float t;
-			int tx, ty, tz;
-			for (int i = 0; i < maxima_v.size(); i++) {
-				max = -1;
-				for (int j = i; j < maxima_v.size(); j++) {
-					// find max
-					if (maxima_v.get(j) > max) {
-						max = maxima_v.get(j);
-						max_j = j;
-					}
-				}
-				// swap max element and current element
-				t = maxima_v.get(max_j);
-				tx = maxima_x.get(max_j);
-				ty = maxima_y.get(max_j);
-				tz = maxima_z.get(max_j);
-
-				maxima_v.set(max_j, maxima_v.get(i));
-				maxima_x.set(max_j, maxima_x.get(i));
-				maxima_y.set(max_j, maxima_y.get(i));
-				maxima_z.set(max_j, maxima_z.get(i));
-
-				maxima_v.set(i, t);
-				maxima_x.set(i, tx);
-				maxima_y.set(i, ty);
-				maxima_z.set(i, tz);
-			}
+		fillResponseStack(stack, useLaplacian);
+		LocalMaxima maxima = findLocalMaxima(stack, thresholdLambda, k_x_radius, k_y_radius,
+				considerFirstSigmaAsMaxima);
+		if (leaveNMax != -1)
+			maxima.leaveBest(leaveNMax);
 
-			int x, y, z;
-			float v;
-			PointWithScale p;
-			for (int i = 0; i < Math.min(leaveNMax, maxima_v.size()); i++) {
-				x = maxima_x.get(i);
-				y = maxima_y.get(i);
-				z = maxima_z.get(i);
-				v = maxima_v.get(i);
-				p = new PointWithScale(x, y, scaleSigmas[z], v);
-				// System.out.println("adding point " + p + ", z= " + z+ ",sigmas = " +
-				// scaleSigmas);
-				list.add(p);
-			}
-		}
+		ArrayList<PointWithScale> list = new ArrayList<PointWithScale>(Math.max(5, maxima.size));
+		for (int i = 0; i < maxima.size; i++)
+			list.add(new PointWithScale(maxima.x[i], maxima.y[i], scaleSigmas[maxima.z[i]], maxima.v[i]));
 		return list;
 	}
 
@@ -125,91 +63,18 @@ public class BlobDetector {
 	public ByteProcessor findBlobsByLocalMaximaAsImage(float thresholdLambda, boolean binary, boolean useLaplacian,
 			int leaveNMax, int k_x_radius, int k_y_radius, boolean considerFirstSigmaAsMaxima) {
 		ImageProcessor stack[] = new ImageProcessor[hessians.length];
-		for (int z = 0; z < hessians.length; z++) {
-			if (useLaplacian) {
-				stack[z] = hessians[z].getLambda2().duplicate();
-				ImageProcessorCalculator.add(stack[z], hessians[z].getLambda1()); // laplacian
-				ImageProcessorCalculator.add(stack[z], hessians[z].getLambda1()); // laplacian + lambda 1
-			} else
-				stack[z] = hessians[z].getLambda1().duplicate();
-			// ImageProcessorCalculator.linearCombination(0.5f, stack[z], 0.5f,
-			// hessians[z].getLambda2());
-		}
-		ByteProcessor result = new ByteProcessor(ip.getWidth(), ip.getHeight());
-		ArrayList<Float> maxima_v = new ArrayList<Float>(20);
-		ArrayList<Integer> maxima_x = new ArrayList<Integer>(20);
-		ArrayList<Integer> maxima_y = new ArrayList<Integer>(20);
-		ArrayList<Integer> maxima_z = new ArrayList<Integer>(20);
+		fillResponseStack(stack, useLaplacian);
+		LocalMaxima maxima = findLocalMaxima(stack, thresholdLambda, k_x_radius, k_y_radius,
+				considerFirstSigmaAsMaxima);
+		if (leaveNMax != -1)
+			maxima.leaveBest(leaveNMax);
 
-		int zStackStart = considerFirstSigmaAsMaxima?0:1;
-		for (int y = k_y_radius; y < ip.getHeight() - k_y_radius; y++)
-			for (int x = k_x_radius; x < ip.getWidth() - k_x_radius; x++) {
-				result.setf(x, y, 0);
-				if (mask != null && mask.get(x, y) <= 0)
-					continue;
-				for (int z = zStackStart; z < hessians.length; z++) {
-					if (isLocalMaximumThresholded3D(stack, x, y, z, thresholdLambda, k_x_radius, k_y_radius))
-						// normalizeValue0_255(scaleSigmas[z], scaleSigmas[0],
-						// scaleSigmas[scaleSigmas.length - 1]));
-						if (leaveNMax != -1) {
-							maxima_x.add(x);
-							maxima_y.add(y);
-							maxima_z.add(z);
-							maxima_v.add(stack[z].getf(x, y));
-						} else {
-							if (binary)
-								result.set(x, y, 255);
-							else
-								result.setf(x, y, scaleSigmas[z]);
-						}
-				}
-			}
-		if (leaveNMax != -1) {
-			// sort max list
-			int max_j = -1;
-			float max = -1;
-			float t;
-			int tx, ty, tz;
-			for (int i = 0; i < maxima_v.size(); i++) {
-				max = -1;
-				for (int j = i; j < maxima_v.size(); j++) {
-					// find max
-					if (maxima_v.get(j) > max) {
-						max = maxima_v.get(j);
-						max_j = j;
-					}
-				}
-				// swap max element and current element
-				t = maxima_v.get(max_j);
-				tx = maxima_x.get(max_j);
-				ty = maxima_y.get(max_j);
-				tz = maxima_z.get(max_j);
-
-				maxima_v.set(max_j, maxima_v.get(i));
-				maxima_x.set(max_j, maxima_x.get(i));
-				maxima_y.set(max_j, maxima_y.get(i));
-				maxima_z.set(max_j, maxima_z.get(i));
-
-				maxima_v.set(i, t);
-				maxima_x.set(i, tx);
-				maxima_y.set(i, ty);
-				maxima_z.set(i, tz);
-			}
-
-			// for (int i = 0; i < maxima_v.size(); i++) {
-			// System.out.printf("%.5f \n", maxima_v.get(i));
-			// }
-			// System.out.println();
-
-			int x, y;
-			for (int i = 0; i < Math.min(leaveNMax, maxima_v.size()); i++) {
-				x = maxima_x.get(i);
-				y = maxima_y.get(i);
-				if (binary)
-					result.set(x, y, 255);
-				else
-					result.setf(x, y, scaleSigmas[maxima_z.get(i)]);
-			}
+		ByteProcessor result = new ByteProcessor(ip.getWidth(), ip.getHeight());
+		for (int i = 0; i < maxima.size; i++) {
+			if (binary)
+				result.set(maxima.x[i], maxima.y[i], 255);
+			else
+				result.setf(maxima.x[i], maxima.y[i], scaleSigmas[maxima.z[i]]);
 		}
 		return result;
 	}
@@ -220,7 +85,7 @@ public class BlobDetector {
 	public ImageProcessor findBlobsByMaxSigmasImage() {
 		ImageProcessor stack[] = new ImageProcessor[hessians.length];
 		for (int z = 0; z < hessians.length; z++) {
-			stack[z] = hessians[z].getLambda2();
+			stack[z] = hessians[z].getResponse(Hessian.Response.LAMBDA2);
 		}
 		ImageProcessor sigmaMax = ip.duplicate();
 		float max;
@@ -237,24 +102,264 @@ public class BlobDetector {
 	}
 
 	/*
-	 * return true if point (x,y; z) in hessian stack is local maximum in k_size_x
-	 * \times k_size_y \times 3 region
+	 * fills stack with lambda2 + 2*lambda1 (laplacian + lambda1) or lambda1
+	 * responses for all sigmas, calculated into the reused buffers
 	 */
-	private boolean isLocalMaximumThresholded3D(ImageProcessor[] stack, int x, int y, int z, float threshold,
-			int kernel_x_radius, int kernel_y_radius) {
-		float p = stack[z].getf(x, y);
-		if (Math.abs(p) < threshold)
-			return false;
+	private void fillResponseStack(ImageProcessor[] stack, boolean useLaplacian) {
+		if (responses == null)
+			responses = new float[hessians.length][];
+		Hessian.Response response = useLaplacian ? Hessian.Response.LAMBDA2_PLUS_2LAMBDA1 : Hessian.Response.LAMBDA1;
+		for (int z = 0; z < hessians.length; z++) {
+			responses[z] = hessians[z].getResponse(response, responses[z]);
+			stack[z] = new FloatProcessor(ip.getWidth(), ip.getHeight(), responses[z]);
+		}
+	}
 
-		for (int dx = -kernel_x_radius; dx < kernel_x_radius + 1; dx++)
-			for (int dy = -kernel_y_radius; dy < kernel_y_radius + 1; dy++)
-				for (int dz = -1; dz < 2; dz++) {
-					if (z + dz < 0 || z + dz > stack.length - 1)
+	/*
+	 * finds points (x,y; z) of the hessian stack, which are maxima in k_size_x
+	 * \times k_size_y \times 3 region and have absolute value not less than
+	 * threshold. Region maxima are calculated by separable running max filters
+	 * (across scale, then x, then y), so the cost doesn't depend on the region
+	 * size. Points are returned in raster order (y, x, z), points outside the mask
+	 * and closer than radius to the image border are skipped
+	 */
+	private LocalMaxima findLocalMaxima(ImageProcessor[] stack, float threshold, int kernel_x_radius,
+			int kernel_y_radius, boolean considerFirstSigmaAsMaxima) {
+		int w = ip.getWidth(), h = ip.getHeight();
+		LocalMaxima maxima = new LocalMaxima(20);
+		if (w <= 2 * kernel_x_radius || h <= 2 * kernel_y_radius)
+			return maxima;
+
+		float[][] pixels = new float[stack.length][];
+		for (int z = 0; z < stack.length; z++)
+			pixels[z] = (float[]) stack[z].getPixels();
+		float[] scaleMax = new float[w * h];
+		float[] rowMax = new float[w * h];
+		float[] regionMax = new float[w * h];
+		float[] p;
+
+		int zStackStart = considerFirstSigmaAsMaxima ? 0 : 1;
+		for (int z = zStackStart; z < stack.length; z++) {
+			p = pixels[z];
+			System.arraycopy(p, 0, scaleMax, 0, w * h);
+			if (z > 0)
+				max(scaleMax, pixels[z - 1]);
+			if (z < stack.length - 1)
+				max(scaleMax, pixels[z + 1]);
+			runningMaxX(scaleMax, rowMax, w, h, kernel_x_radius);
+			runningMaxY(rowMax, scaleMax, regionMax, w, h, kernel_y_radius);
+
+			for (int y = kernel_y_radius; y < h - kernel_y_radius; y++)
+				for (int x = kernel_x_radius; x < w - kernel_x_radius; x++) {
+					int i = y * w + x;
+					if (Math.abs(p[i]) < threshold || p[i] < regionMax[i])
 						continue;
-					if (p < stack[z + dz].getf(x + dx, y + dy))
-						return false;
+					if (mask != null && !mask.contains(x, y))
+						continue;
+					maxima.add(x, y, z, p[i]);
 				}
-		return true;
+		}
+		maxima.sortByPosition(w, stack.length);
+		return maxima;
+	}
+
+	/* a = max(a, b) for each element */
+	private static void max(float[] a, float[] b) {
+		for (int i = 0; i < a.length; i++)
+			if (b[i] > a[i])
+				a[i] = b[i];
+	}
+
+	/*
+	 * sliding window maximum (van Herk / Gil-Werman) along rows: dst(x, y) = max of
+	 * src(x - r .. x + r, y). Rows are split into blocks of 2r+1 pixels, g and h
+	 * are maxima from the block start and to the block end, then any window is
+	 * covered by h of its first pixel and g of its last one. Only x in [r, w - r)
+	 * is calculated
+	 */
+	private static void runningMaxX(float[] src, float[] dst, int w, int h, int r) {
+		int k = 2 * r + 1;
+		float[] g = new float[w];
+		float[] hb = new float[w];
+		int row, end;
+		for (int y = 0; y < h; y++) {
+			row = y * w;
+			for (int start = 0; start < w; start += k) {
+				end = Math.min(start + k, w) - 1;
+				g[start] = src[row + start];
+				for (int x = start + 1; x <= end; x++)
+					g[x] = src[row + x] > g[x - 1] ? src[row + x] : g[x - 1];
+				hb[end] = src[row + end];
+				for (int x = end - 1; x >= start; x--)
+					hb[x] = src[row + x] > hb[x + 1] ? src[row + x] : hb[x + 1];
+			}
+			for (int x = r; x < w - r; x++)
+				dst[row + x] = hb[x - r] > g[x + r] ? hb[x - r] : g[x + r];
+		}
+	}
+
+	/*
+	 * the same as runningMaxX along columns, calculated row by row. g replaces
+	 * "src", h goes to "buffer", the result for y in [r, h - r) goes to "dst"
+	 */
+	private static void runningMaxY(float[] src, float[] buffer, float[] dst, int w, int h, int r) {
+		int k = 2 * r + 1;
+		float[] g = src;
+		float[] hb = buffer;
+		int end, i;
+		for (int start = 0; start < h; start += k) {
+			end = Math.min(start + k, h) - 1;
+			System.arraycopy(src, end * w, hb, end * w, w);
+			for (int y = end - 1; y >= start; y--)
+				for (int x = 0, row = y * w; x < w; x++) {
+					i = row + x;
+					hb[i] = src[i] > hb[i + w] ? src[i] : hb[i + w];
+				}
+			for (int y = start + 1; y <= end; y++)
+				for (int x = 0, row = y * w; x < w; x++) {
+					i = row + x;
+					if (g[i - w] > g[i])
+						g[i] = g[i - w];
+				}
+		}
+		for (int y = r; y < h - r; y++)
+			for (int x = 0, a = (y - r) * w, b = (y + r) * w, row = y * w; x < w; x++)
+				dst[row + x] = hb[a + x] > g[b + x] ? hb[a + x] : g[b + x];
+	}
+
+	/*
+	 * list of local maxima in primitive arrays. Can be reduced to the best ones,
+	 * sorted by value in descending order
+	 */
+	private static class LocalMaxima {
+		int[] x, y, z;
+		float[] v;
+		int size = 0;
+
+		LocalMaxima(int capacity) {
+			x = new int[capacity];
+			y = new int[capacity];
+			z = new int[capacity];
+			v = new float[capacity];
+		}
+
+		void add(int px, int py, int pz, float pv) {
+			if (size == v.length) {
+				int capacity = 2 * v.length;
+				x = Arrays.copyOf(x, capacity);
+				y = Arrays.copyOf(y, capacity);
+				z = Arrays.copyOf(z, capacity);
+				v = Arrays.copyOf(v, capacity);
+			}
+			x[size] = px;
+			y[size] = py;
+			z[size] = pz;
+			v[size] = pv;
+			size++;
+		}
+
+		/* sorts maxima in raster order (y, x, z) */
+		void sortByPosition(int width, int depth) {
+			long[] keys = new long[size];
+			for (int i = 0; i < size; i++)
+				keys[i] = ((long) y[i] * width + x[i]) * depth + z[i];
+			boolean sorted = true;
+			for (int i = 1; i < size && sorted; i++)
+				sorted = keys[i - 1] <= keys[i];
+			if (sorted)
+				return;
+			// sort keys together with indices, packed in the low bits
+			int indexBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, size));
+			for (int i = 0; i < size; i++)
+				keys[i] = (keys[i] << indexBits) | i;
+			Arrays.sort(keys);
+			int[] order = new int[size];
+			for (int i = 0; i < size; i++)
+				order[i] = (int) (keys[i] & ((1L << indexBits) - 1));
+			reorder(order, size);
+		}
+
+		/*
+		 * leaves n maxima with largest values, sorted by value in descending order.
+		 * Maxima with equal values keep raster order. Uses a bounded min-heap, so
+		 * all maxima are not sorted
+		 */
+		void leaveBest(int n) {
+			if (n <= 0) {
+				size = 0;
+				return;
+			}
+			int[] heap = new int[Math.min(n, size)]; // indices, the worst maximum in the root
+			int heapSize = 0;
+			for (int i = 0; i < size; i++) {
+				if (heapSize < heap.length) {
+					heap[heapSize] = i;
+					siftUp(heap, heapSize++);
+				} else if (worse(heap[0], i)) {
+					heap[0] = i;
+					siftDown(heap, 0, heapSize);
+				}
+			}
+			// take the worst one until the heap is empty, filling the order from the end
+			int[] order = new int[heapSize];
+			for (int k = heapSize - 1; k >= 0; k--) {
+				order[k] = heap[0];
+				heap[0] = heap[k];
+				siftDown(heap, 0, k);
+			}
+			reorder(order, heapSize);
+		}
+
+		/* true if maximum i is worse than j: smaller value or later in raster order */
+		private boolean worse(int i, int j) {
+			return v[i] < v[j] || (v[i] == v[j] && i > j);
+		}
+
+		private void siftUp(int[] heap, int k) {
+			int parent;
+			while (k > 0) {
+				parent = (k - 1) / 2;
+				if (!worse(heap[k], heap[parent]))
+					break;
+				swap(heap, k, parent);
+				k = parent;
+			}
+		}
+
+		private void siftDown(int[] heap, int k, int heapSize) {
+			int child;
+			while ((child = 2 * k + 1) < heapSize) {
+				if (child + 1 < heapSize && worse(heap[child + 1], heap[child]))
+					child++;
+				if (!worse(heap[child], heap[k]))
+					break;
+				swap(heap, k, child);
+				k = child;
+			}
+		}
+
+		private static void swap(int[] a, int i, int j) {
+			int t = a[i];
+			a[i] = a[j];
+			a[j] = t;
+		}
+
+		/* keeps first n maxima given by indices in "order" */
+		private void reorder(int[] order, int n) {
+			int[] nx = new int[Math.max(1, n)], ny = new int[Math.max(1, n)], nz = new int[Math.max(1, n)];
+			float[] nv = new float[Math.max(1, n)];
+			for (int i = 0; i < n; i++) {
+				nx[i] = x[order[i]];
+				ny[i] = y[order[i]];
+				nz[i] = z[order[i]];
+				nv[i] = v[order[i]];
+			}
+			x = nx;
+			y = ny;
+			z = nz;
+			v = nv;
+			size = n;
+		}
 	}
 
 	/* aux. function */
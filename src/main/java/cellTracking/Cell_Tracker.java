@@ -2,6 +2,7 @@ package cellTracking;
 
 import java.awt.AWTEvent;
 import java.awt.Scrollbar;
+import java.io.File;
 import java.util.Vector;
 
 import graph.CellTrackingGraph;
@@ -21,13 +22,10 @@ import ij.process.ImageProcessor;
 import ij.process.StackConverter;
 import ij.plugin.filter.ExtendedPlugInFilter;
 import ij.plugin.Converter;
-import ij.plugin.filter.BackgroundSubtracter;
-import ij.plugin.filter.RankFilters;
 import ij.plugin.frame.RoiManager;
 import inra.ijpb.morphology.Morphology.Operation;
 import inra.ijpb.morphology.Strel;
 import inra.ijpb.morphology.Strel.Shape;
-import inra.ijpb.watershed.MarkerControlledWatershedTransform2D;
 import evaluation.EvaluationFromRoi;
 import evaluation.TrackingEvaluation;
 
@@ -102,6 +100,7 @@ public class Cell_Tracker implements ExtendedPlugInFilter, DialogListener {
 
 	private boolean startedProcessing = false; // comes true after user has selected whether to process stacks or not
 	private boolean showBlobs = false;
+	private boolean globalLinking = false; // one-slice linking by minimum total penalty instead of greedy
 
 	String ctcTifResult, ctcTxtResult, infoFilePath;
 	
@@ -113,11 +112,6 @@ public class Cell_Tracker implements ExtendedPlugInFilter, DialogListener {
 
 	private final float sigmaMax = 50; // max value of sigmas
 
-	// plugins
-	private Gaussian gaussian;
-	private BackgroundSubtracter backgroundSub;
-	private RankFilters rankFilters;
-
 	@Override
 	public int setup(String arg, ImagePlus imp) {
 		if (imp == null) {
@@ -158,7 +152,9 @@ public class Cell_Tracker implements ExtendedPlugInFilter, DialogListener {
 			// scoreThreshold, oneSliceScoreThreshold, timeDecayCoefficient);
 
 			IJ.log("Tracking dark nuclei...");
-			tracking.trackComponentsOneSlice(maxRadiusDark, oneSliceScoreThreshold);
+			tracking.trackComponentsOneSlice(maxRadiusDark, oneSliceScoreThreshold,
+					globalLinking ? NearestNeighbourTracking.LinkingMode.ASSIGNMENT
+							: NearestNeighbourTracking.LinkingMode.GREEDY);
 			tracking.trackComponentsMultiSlice(maxRadiusDark, slices, scoreThreshold, timeDecayCoefficient);
 			tracking.fillTracks();
 			IJ.log("Tracking dark nuclei finished.");
@@ -192,11 +188,11 @@ public class Cell_Tracker implements ExtendedPlugInFilter, DialogListener {
 				trackingResultsDir = dirChoose.getDirectory();
 			}
 			if (trackingResultsDir == null)
-				trackingResultsDir = System.getProperty("user.dir") + '\\';
+				trackingResultsDir = System.getProperty("user.dir") + File.separator;
 			
 			final String separator = System.getProperty("file.separator");
 			
-			String mitosisInfoFileName = imp.getShortTitle() + "_mitosis_info.ser";
+			String mitosisInfoFileName = imp.getShortTitle() + "_lineage.bin";
 			infoFilePath = trackingResultsDir + mitosisInfoFileName;
 			
 			CellTrackingGraph resultGraph = new CellTrackingGraph(tracking, roiManager, imp, infoFilePath);
@@ -246,7 +242,6 @@ public class Cell_Tracker implements ExtendedPlugInFilter, DialogListener {
 			StackConverter stackConv = new StackConverter(imp);
 			stackConv.convertToGray32();
 		}
-		instancePlugins();
 		// here maybe add flags like flags |= DOES_NOTHING
 		return flags;
 	}
@@ -263,15 +258,6 @@ public class Cell_Tracker implements ExtendedPlugInFilter, DialogListener {
 		return infoFilePath;
 	}
 
-	/*
-	 * creates instances of used plugins
-	 */
-	private void instancePlugins() {
-		gaussian = new Gaussian();
-		backgroundSub = new BackgroundSubtracter();
-		rankFilters = new RankFilters();
-	}
-
 	@Override
 	public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
 		// Normal setup
@@ -342,6 +328,7 @@ public class Cell_Tracker implements ExtendedPlugInFilter, DialogListener {
 		// gd.addCheckbox("Show Image before Watershedding", showImageForWatershedding);
 		gd.addCheckbox("Show blobs", showBlobs);
 		gd.addCheckbox("Filter components", filterComponents);
+		gd.addCheckbox("Global one-slice linking", globalLinking);
 		gd.addPreviewCheckbox(pfr);
 		gd.addDialogListener(this);
 		gd.addSlider("Slice", 1, nSlices, selectedSlice);
@@ -395,6 +382,7 @@ public class Cell_Tracker implements ExtendedPlugInFilter, DialogListener {
 		// showImageForWatershedding = gd.getNextBoolean();
 		showBlobs = gd.getNextBoolean();
 		filterComponents = gd.getNextBoolean();
+		globalLinking = gd.getNextBoolean();
 
 		previewing = gd.getPreviewCheckbox().getState();
 
@@ -423,26 +411,18 @@ public class Cell_Tracker implements ExtendedPlugInFilter, DialogListener {
 
 	@Override
 	public void run(ImageProcessor ip) {
+		ImageProcessor frame;
 		if (startedProcessing) { // stack processing
 			if (previewing) // if preview was on, return the stack to original images
 				resetPreview();
-			result = ip.duplicate();
+			frame = ip;
 		} else
-			result = baseImage.duplicate();
-
-		if (useGaussian) {
-			// rankFilters.rank(result, medianRadius, RankFilters.MEDIAN);
-			gaussian.GaussianBlur(result, (float) gaussianSigma);
-		}
-
-		cellMask = ImageFunctions.getWhiteObjectsMask(ip, 1, 15);
+			frame = baseImage;
 
-		if (rollingBallRadius > 0)
-			backgroundSub.rollingBallBackground(result, rollingBallRadius, false, false, false, true, false);
-		ImageFunctions.normalize(result, 0, 1);
+		SegmentationEngine engine = createSegmentationEngine();
 
 		if (isTestMode) {
-			ImageProcessor testResult = testFunction(result);
+			ImageProcessor testResult = testFunction(engine.preprocess(frame));
 
 			if (previewing && !doesStacks()) {
 				for (int i = 0; i < ip.getPixelCount(); i++) {
@@ -454,7 +434,7 @@ public class Cell_Tracker implements ExtendedPlugInFilter, DialogListener {
 			return;
 		}
 
-		result = maximaWatershedSegmentation(result, ip, sigma3, minThreshold, maxThreshold);
+		result = segmentFrame(engine, frame, ip);
 
 		result = result.convertToFloatProcessor();
 		result.resetMinAndMax();
@@ -474,156 +454,61 @@ public class Cell_Tracker implements ExtendedPlugInFilter, DialogListener {
 		}
 	}
 
+	/* creates segmentation engine with currently selected parameters */
+	public SegmentationEngine createSegmentationEngine() {
+		SegmentationEngine engine = new SegmentationEngine();
+		engine.gaussianSigma = useGaussian ? gaussianSigma : 0;
+		engine.rollingBallRadius = rollingBallRadius;
+		engine.topHatRadius = topHatRadius;
+		engine.gradientSigma = sigma3;
+		engine.heightTolerance = heightTolerance;
+		engine.heightToleranceBright = heightToleranceBright;
+		engine.maximumNumberOfBlobs = maximumNumberOfBlobs;
+		engine.dilationRadius = dilationRadius;
+		engine.blobMergeThreshold = blobMergeThreshold;
+		engine.minArea = minArea;
+		engine.maxArea = maxArea;
+		engine.minCircularity = minCircularity;
+		engine.maxCircularity = maxCircularity;
+		engine.filterComponents = filterComponents;
+		engine.sigmas = sigmas.clone();
+		return engine;
+	}
+
 	/*
-	 * Yaginuma version of the algorithm, with finding maxima and marker-controlled
-	 * watershed, then post-processing (0 ver) I changed gradient threshold to canny
-	 * edge detection for flooding
-	 * 
-	 * (1 ver) Marker controlled watershed on gradient of the bandpass (or
-	 * intensity), markers are minima of the bandpass (or intensity). (1 ver)
-	 * Bandpass or intensity is selected by the checkbox
+	 * segments one slice by the engine steps, the same way as headless processing:
+	 * blob markers are merged with components of the previous slice and flooded,
+	 * (filtered) components are added to the tracking when the stack is processed.
+	 * Returns the image to show: components, or blobs and the image before the
+	 * watershed if they are requested
 	 */
-	private ImageProcessor maximaWatershedSegmentation(ImageProcessor ip, ImageProcessor original, double sigma,
-			double minThreshold, double maxThreshold) {
-		// assume ip is already preprocessed, i.e. filtered, background subtracted
-		ImageProcessor watershedImage = ip.duplicate();
-		ImageProcessor intensityImg;
-		ImageProcessor watershedMask;
-		intensityImg = ip.duplicate();
-
-		int blobDetection_x_radius = 3;
-		int blobDetection_y_radius = 3;
-
-		if (isBandpass) {
-			bandpassFilter(watershedImage);
-		}
-		// create mask for watershed
-		watershedMask = watershedImage.duplicate();
-		// threshold = markerImg.duplicate(); //this should be otsu thresholded image
-		// with convex hulling aftewards
-		// ImageFunctions.thresholdMinMax(watershedMask, minThreshold, maxThreshold);
-
-		// cellMask = ImageFunctions.getWhiteObjectsMask(ip, 1, 15);
-		// imp_mask = new ImagePlus("mask", test_mask);
-		// imp_mask.show();
-		// ip = imp_mask.getProcessor();
-		// ImagePlus wat = new ImagePlus("mask", watershedMask);
-
-		if (topHatRadius > 0)
-			watershedImage = ImageFunctions.operationMorph(watershedImage, Operation.TOPHAT, Strel.Shape.DISK,
-					topHatRadius);
-
-		ImageFunctions.normalize(watershedImage, 0, 1);
-		ImageFunctions.normalize(ip, 0, 1);
-
-		BlobDetector blobs = new BlobDetector(ip, null, sigmas);
-		float[] sigmas_bright = { 4, 7, 10, 15, 20 };
-
-		// detect bright blobs
-		ImageProcessor ip_brightBlobs = intensityImg.duplicate();
-		ImageProcessorCalculator.constMultiply(ip_brightBlobs, -1);
-		BlobDetector brightBlobs = new BlobDetector(ip_brightBlobs, cellMask, sigmas_bright);
-
-		// ImageProcessor findMaximaImage = blobs.findBlobsByMaxSigmasImage();
-		ImageProcessor marksDarkBinary, marksBrightBinary;
-		// marks = maxfinder.findMaxima(findMaximaImage, heightTolerance,
-		// MaximumFinder.SINGLE_POINTS, true);
-		marksDarkBinary = blobs.findBlobsByLocalMaximaAsImage((float) heightTolerance, true, true, maximumNumberOfBlobs,
-				blobDetection_x_radius, blobDetection_y_radius, true);
-		ImageProcessor marksSigma = blobs.findBlobsByLocalMaximaAsImage((float) heightTolerance, false, true,
-				maximumNumberOfBlobs, blobDetection_x_radius, blobDetection_y_radius, true);
-
-		// find bright markers to create more watershed seeds outside of cells
-		marksBrightBinary = brightBlobs.findBlobsByLocalMaximaAsImage((float) heightToleranceBright, true, true,
-				maximumNumberOfBlobs / 4, blobDetection_x_radius, blobDetection_y_radius, false);
-
-		ImageProcessor circles = original.duplicate();
-		ImageFunctions.drawCirclesBySigmaMarkerks(circles, marksSigma, true, false);
-
-		FloatHistogram hist = new FloatHistogram(ip);
-		float otsu = hist.otsuThreshold();
-
-		ImageProcessor closingImage = ImageFunctions.operationMorph(ip, Operation.CLOSING, Shape.DISK, 20);
-
-		ImageProcessorCalculator.sub(watershedImage, closingImage);
-		ImageFunctions.normalize(watershedImage, 0, 1);
-		// watershedImage = ImageProcessorCalculator.invertedImage(watershedImage);
+	private ImageProcessor segmentFrame(SegmentationEngine engine, ImageProcessor frame, ImageProcessor original) {
+		SegmentationEngine.FrameMarkers f = engine.detectMarkers(frame);
 
 		if (showImageForWatershedding) {
-			ImagePlus imp = new ImagePlus("preprocessed", watershedImage);
+			ImagePlus imp = new ImagePlus("preprocessed", f.watershedImage);
 			imp.show();
-			return watershedImage;
+			return f.watershedImage;
 		}
 
-		ImageProcessor marksCopy = marksDarkBinary.duplicate();
-		ImageFunctions.addMarkers(marksCopy, marksBrightBinary);
-
-		ImageFunctions.mergeMarkers(marksDarkBinary, prevComponentsAnalysis, dilationRadius);
-		if (blobMergeThreshold > 0)
-			marksDarkBinary = ImageFunctions.mergeBinaryMarkersInTheSameRegion(watershedImage, marksDarkBinary, 35,
-					blobMergeThreshold);
-
-		// combine markers from bright and dark blobs, AFTER DARK BLOBS MERGING
-		boolean addBrightMarkers = true;
-		if (addBrightMarkers) {
-			ImageFunctions.addMarkers(marksDarkBinary, marksBrightBinary);
-		}
+		ImageProcessor marks = engine.mergeMarkers(f, prevComponentsAnalysis);
 
 		if (showBlobs && previewing && !startedProcessing) {
-			ImageFunctions.normalize(marksDarkBinary, 0, 2);
-			// marksDarkBinary = ImageFunctions.operationMorph(marksDarkBinary,
-			// Operation.DILATION, Strel.Shape.DISK, 2);
-			ip = original;
-			// ImageFunctions.colorCirclesBySigmaMarkers(ip, marksSigma, true, false);
-//			ImageFunctions.colorCirclesBySigmaMarkers(ip, marksCopy, true, true, 7);
-//			ImageFunctions.colorCirclesBySigmaMarkers(ip, marksDarkBinary, true, true, 7);
-			ImageFunctions.normalize(watershedImage, 0, 255);
-//			ImageFunctions.colorCirclesBySigmaMarkers(watershedImage, marksDarkBinary, true, true, 7);
-			ImageFunctions.drawCirclesBySigmaMarkerks(ip, marksDarkBinary, true, false);
-			// ImagePlus imp = new ImagePlus("markers", ip);
-			// imp.show();
-			return ip;
+			ImageFunctions.normalize(marks, 0, 2);
+			ImageFunctions.drawCirclesBySigmaMarkerks(original, marks, true, false);
+			return original;
 		}
 
-		// intensityImg = watershedImage;
-		ImageFunctions.LabelMarker(marksDarkBinary);
-		if (sigma > 0)
-			gaussian.GradientMagnitudeGaussian(watershedImage, (float) sigma); // watershed is better on gradient...
-		// watershedImage = ImageFunctions.operationMorph(watershedImage,
-		// Operation.OPENING, Strel.Shape.DISK, 3);
-		// ImagePlus grad = new ImagePlus("grad", watershedImage);
-		// grad.show();
-		MarkerControlledWatershedTransform2D watershed = new MarkerControlledWatershedTransform2D(watershedImage,
-				marksDarkBinary, null, 4);
-		ip = watershed.applyWithPriorityQueue();
-
-		// here draw and show colored basins
-		// ImageFunctions.colorWatershedBasins(ip);
-
-		if (filterComponents) {
-			ImageComponentsAnalysis compAnalisys;
-
-			compAnalisys = new ImageComponentsAnalysis(ip, intensityImg, true); // get labeled component image and fill
-
-			compAnalisys.setComponentsBrightBlobStateByMarks(marksBrightBinary);
-
-			boolean discardWhiteBlobs = true;
-			ip = compAnalisys.getFilteredComponentsIp(minArea, maxArea, minCircularity, maxCircularity, 0, 1000,
-					discardWhiteBlobs);
-			ImagePlus filtered = new ImagePlus("filtered", ip);
-			// filtered.show();
-
-			// here set component's state by marks image (indicate bright blobs)
-			if (startedProcessing) // add roi only if we started processing
-				compAnalisys.addRoisToManager(roiManager, imagePlus, currSlice);
-
-			if (startedProcessing || doesStacks()) {
-				prevComponentsAnalysis = compAnalisys;
-				tracking.addComponentsAnalysis(compAnalisys);
-			}
-		}
+		ImageComponentsAnalysis compAnalisys = engine.floodMarkers(f, marks);
 
-		return ip;
+		if (startedProcessing) // add roi only if we started processing
+			compAnalisys.addRoisToManager(roiManager, imagePlus, currSlice);
+
+		if (startedProcessing || doesStacks()) {
+			prevComponentsAnalysis = compAnalisys;
+			tracking.addComponentsAnalysis(compAnalisys);
+		}
+		return compAnalisys.getImageComponents();
 	}
 
 	/**
@@ -746,7 +631,11 @@ public class Cell_Tracker implements ExtendedPlugInFilter, DialogListener {
 		return result;
 	}
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) { // headless processing of the given stacks
+			BatchTracker.main(args);
+			return;
+		}
 		boolean testImageJ = true;
 		boolean traConvert = false;
 		// traConvert = true;
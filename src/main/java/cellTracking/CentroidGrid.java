@@ -0,0 +1,138 @@
+package cellTracking;
+
+import java.util.Arrays;
+
+import point.Point;
+
+/*
+ * uniform grid over mass centers of components, to find components close to a
+ * point without looking through all of them. Indexes of components of every
+ * cell are kept one after another in one array, in ascending order
+ */
+public class CentroidGrid {
+	private int count; // number of indexed components
+	private double[] xs, ys; // mass centers
+
+	private double cellSize;
+	private int cols, rows;
+	private int[] cellStart; // components of cell c are cellItems[cellStart[c] .. cellStart[c+1])
+	private int[] cellItems;
+
+	/* grid with about one component per cell */
+	public CentroidGrid(ImageComponentsAnalysis comps) {
+		this(comps, Math.max(4, Math.sqrt((double) comps.getWidth() * comps.getHeight()
+				/ Math.max(1, comps.getComponentsCount()))));
+	}
+
+	public CentroidGrid(ImageComponentsAnalysis comps, double cellSize) {
+		this.cellSize = cellSize;
+		count = comps.getComponentsCount();
+		xs = new double[count];
+		ys = new double[count];
+		for (int i = 0; i < count; i++) {
+			Point p = comps.getComponentMassCenter(i);
+			xs[i] = p.getX();
+			ys[i] = p.getY();
+		}
+
+		cols = Math.max(1, (int) Math.ceil(comps.getWidth() / cellSize));
+		rows = Math.max(1, (int) Math.ceil(comps.getHeight() / cellSize));
+		cellStart = new int[cols * rows + 1];
+		cellItems = new int[count];
+		int[] cells = new int[count];
+		for (int i = 0; i < count; i++) {
+			cells[i] = cellIndex(xs[i], ys[i]);
+			cellStart[cells[i] + 1]++;
+		}
+		for (int c = 0; c < cols * rows; c++)
+			cellStart[c + 1] += cellStart[c];
+		int[] fill = Arrays.copyOf(cellStart, cols * rows);
+		for (int i = 0; i < count; i++) // components go in ascending order inside cells
+			cellItems[fill[cells[i]]++] = i;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/*
+	 * returns indexes of components with mass center not further than radius from
+	 * (x,y), in ascending order
+	 */
+	public int[] findIndexesInRadius(double x, double y, double radius) {
+		int[] result = new int[8];
+		int n = 0;
+		int cx0 = cellColumn(x - radius), cx1 = cellColumn(x + radius);
+		int cy0 = cellRow(y - radius), cy1 = cellRow(y + radius);
+		int i;
+		for (int cy = cy0; cy <= cy1; cy++)
+			for (int cx = cx0; cx <= cx1; cx++)
+				for (int k = cellStart[cy * cols + cx]; k < cellStart[cy * cols + cx + 1]; k++) {
+					i = cellItems[k];
+					if (!(dist(x, y, i) <= radius))
+						continue;
+					if (n == result.length)
+						result = Arrays.copyOf(result, 2 * n);
+					result[n++] = i;
+				}
+		result = Arrays.copyOf(result, n);
+		Arrays.sort(result);
+		return result;
+	}
+
+	public int[] findIndexesInRadius(Point p, double radius) {
+		return findIndexesInRadius(p.getX(), p.getY(), radius);
+	}
+
+	/*
+	 * returns index of the component, which mass center is the closest to (x,y)
+	 * and closer than radius, or -1. If several are equally close, the smallest
+	 * index is returned
+	 */
+	public int findClosestIndex(double x, double y, double radius) {
+		int min_i = -1;
+		double min_dist = Double.MAX_VALUE;
+		double dist;
+		int cx0 = cellColumn(x - radius), cx1 = cellColumn(x + radius);
+		int cy0 = cellRow(y - radius), cy1 = cellRow(y + radius);
+		int i;
+		for (int cy = cy0; cy <= cy1; cy++)
+			for (int cx = cx0; cx <= cx1; cx++)
+				for (int k = cellStart[cy * cols + cx]; k < cellStart[cy * cols + cx + 1]; k++) {
+					i = cellItems[k];
+					dist = dist(x, y, i);
+					if (dist < radius && (dist < min_dist || (dist == min_dist && i < min_i))) {
+						min_dist = dist;
+						min_i = i;
+					}
+				}
+		return min_i;
+	}
+
+	public int findClosestIndex(Point p, double radius) {
+		return findClosestIndex(p.getX(), p.getY(), radius);
+	}
+
+	/* the same as Point.dist */
+	private double dist(double x, double y, int i) {
+		double dx = x - xs[i], dy = y - ys[i];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private int cellIndex(double x, double y) {
+		return cellRow(y) * cols + cellColumn(x);
+	}
+
+	/* column of the cell with x, clamped to the grid */
+	private int cellColumn(double x) {
+		if (!(x > 0))
+			return 0;
+		return (int) Math.min(cols - 1, Math.floor(x / cellSize));
+	}
+
+	private int cellRow(double y) {
+		if (!(y > 0))
+			return 0;
+		return (int) Math.min(rows - 1, Math.floor(y / cellSize));
+	}
+}
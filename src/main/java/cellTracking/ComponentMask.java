@@ -0,0 +1,114 @@
+package cellTracking;
+
+import java.util.BitSet;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/*
+ * mask of one region in image coordinates: bounding box and a bit per pixel of
+ * the box. Pixels outside the box are not in the mask, so the region can be
+ * processed in O(box area) instead of the whole image
+ */
+public class ComponentMask {
+	private int x0, y0, width, height; // bounding box, inside the image
+	private BitSet bits;
+
+	/* empty mask with the box [x0, x1] x [y0, y1] clipped to image size */
+	public ComponentMask(int x0, int y0, int x1, int y1, int imageWidth, int imageHeight) {
+		this.x0 = Math.max(0, x0);
+		this.y0 = Math.max(0, y0);
+		width = Math.max(0, Math.min(imageWidth - 1, x1) - this.x0 + 1);
+		height = Math.max(0, Math.min(imageHeight - 1, y1) - this.y0 + 1);
+		bits = new BitSet(width * height);
+	}
+
+	/* filled rectangle [x0, x1] x [y0, y1], clipped to image */
+	public static ComponentMask rectangle(int x0, int y0, int x1, int y1, int imageWidth, int imageHeight) {
+		ComponentMask mask = new ComponentMask(x0, y0, x1, y1, imageWidth, imageHeight);
+		mask.bits.set(0, mask.width * mask.height);
+		return mask;
+	}
+
+	/* filled circle, the same pixels as ImageFunctions.drawCircle with fill */
+	public static ComponentMask circle(float r, int x, int y, int imageWidth, int imageHeight) {
+		ComponentMask mask = new ComponentMask((int) (x - r - 2), (int) (y - r - 2), (int) Math.ceil(x + r + 1) - 1,
+				(int) Math.ceil(y + r + 1) - 1, imageWidth, imageHeight);
+		for (int j = (int) (y - r - 2); j < y + r + 1; j++)
+			for (int i = (int) (x - r - 2); i < x + r + 1; i++)
+				if (((i - x) * (i - x) + (j - y) * (j - y)) <= r * r)
+					mask.set(i, j);
+		return mask;
+	}
+
+	/* pixels of the image equal to "intensity", or all positive pixels if intensity < 0 */
+	public static ComponentMask fromImage(ImageProcessor ip, int intensity) {
+		int w = ip.getWidth(), h = ip.getHeight();
+		int xmin = w, ymin = h, xmax = -1, ymax = -1;
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++)
+				if (isSet(ip.get(x, y), intensity)) {
+					xmin = Math.min(xmin, x);
+					xmax = Math.max(xmax, x);
+					ymin = Math.min(ymin, y);
+					ymax = Math.max(ymax, y);
+				}
+		ComponentMask mask = new ComponentMask(xmin, ymin, xmax, ymax, w, h);
+		for (int y = mask.y0; y < mask.y0 + mask.height; y++)
+			for (int x = mask.x0; x < mask.x0 + mask.width; x++)
+				if (isSet(ip.get(x, y), intensity))
+					mask.set(x, y);
+		return mask;
+	}
+
+	private static boolean isSet(int value, int intensity) {
+		return intensity < 0 ? value > 0 : value == intensity;
+	}
+
+	public int getX0() {
+		return x0;
+	}
+
+	public int getY0() {
+		return y0;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/* (x, y) in image coordinates */
+	public boolean contains(int x, int y) {
+		x -= x0;
+		y -= y0;
+		if (x < 0 || y < 0 || x >= width || y >= height)
+			return false;
+		return bits.get(y * width + x);
+	}
+
+	/* adds the pixel, if it is inside the box */
+	public void set(int x, int y) {
+		x -= x0;
+		y -= y0;
+		if (x >= 0 && y >= 0 && x < width && y < height)
+			bits.set(y * width + x);
+	}
+
+	public int getArea() {
+		return bits.cardinality();
+	}
+
+	/* full size image with mask pixels set to intensity */
+	public ImageProcessor toImage(int imageWidth, int imageHeight, int intensity) {
+		ImageProcessor ip = new ByteProcessor(imageWidth, imageHeight);
+		for (int y = y0; y < y0 + height; y++)
+			for (int x = x0; x < x0 + width; x++)
+				if (contains(x, y) && x < imageWidth && y < imageHeight)
+					ip.set(x, y, intensity);
+		return ip;
+	}
+}
@@ -0,0 +1,162 @@
+package cellTracking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/*
+ * keeps pixel images (components and intensity) of at most "capacity" slices in
+ * memory. Slices are registered in the store, every access to pixels of a slice
+ * makes it the most recent one, and the least recently used slice is written to
+ * a file in the store folder and its images are dropped. Component properties
+ * stay in memory, so the tracking works on all slices while only a window of
+ * images is kept. Passes over slices in time order read every file once
+ */
+public class FrameStore {
+	private File dir;
+	private int capacity;
+	private int nextId = 0;
+	private boolean deleteDir; // the folder was created by the store
+	private ImageComponentsAnalysis last = null; // the most recent slice, nothing to do for it
+
+	/* slices with images in memory, in access order */
+	private LinkedHashMap<ImageComponentsAnalysis, Boolean> resident = new LinkedHashMap<ImageComponentsAnalysis, Boolean>(
+			16, 0.75f, true);
+
+	/*
+	 * "dir" is the folder for spilled images, it is created if it doesn't exist. At
+	 * least 3 slices are kept, since a slice is processed together with its
+	 * neighbours
+	 */
+	public FrameStore(File dir, int capacity) throws IOException {
+		this.dir = dir;
+		this.capacity = Math.max(3, capacity);
+		if (!dir.isDirectory()) {
+			if (!dir.mkdirs())
+				throw new IOException("can't create folder " + dir);
+			deleteDir = true;
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/* number of slices with images in memory */
+	public synchronized int getResidentCount() {
+		return resident.size();
+	}
+
+	synchronized int newFrameId() {
+		return nextId++;
+	}
+
+	File getFile(int frameId, String kind) {
+		return new File(dir, "frame" + frameId + "_" + kind + ".raw");
+	}
+
+	/* loads images of the slice if they were spilled, and spills the least used slices */
+	synchronized void touch(ImageComponentsAnalysis comps) {
+		if (comps == last)
+			return;
+		last = comps;
+		try {
+			if (resident.put(comps, Boolean.TRUE) == null)
+				comps.loadSpilledImages();
+			Iterator<ImageComponentsAnalysis> it = resident.keySet().iterator();
+			while (resident.size() > capacity) {
+				ImageComponentsAnalysis eldest = it.next();
+				eldest.spillImages();
+				it.remove();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("frame store " + dir + ": " + e.getMessage(), e);
+		}
+	}
+
+	/* removes spilled files, the store must not be used after that */
+	public synchronized void close() {
+		resident.clear();
+		last = null;
+		for (int id = 0; id < nextId; id++) {
+			getFile(id, "components").delete();
+			getFile(id, "intensity").delete();
+		}
+		if (deleteDir)
+			dir.delete();
+	}
+
+	/* writes raw pixels with a small header: bit depth, width, height */
+	static void writeImage(File file, ImageProcessor ip) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			writeImage(out, ip);
+		} finally {
+			out.close();
+		}
+	}
+
+	static ImageProcessor readImage(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			return readImage(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/*
+	 * bit depth, width, height and little-endian pixels, the layout of spilled
+	 * images and of images in the segmentation cache
+	 */
+	static void writeImage(DataOutputStream out, ImageProcessor ip) throws IOException {
+		int n = ip.getPixelCount();
+		int bitDepth = ip.getBitDepth();
+		out.writeInt(bitDepth);
+		out.writeInt(ip.getWidth());
+		out.writeInt(ip.getHeight());
+		ByteBuffer buffer = ByteBuffer.allocate(n * (bitDepth / 8)).order(ByteOrder.LITTLE_ENDIAN);
+		if (bitDepth == 8)
+			buffer.put((byte[]) ip.getPixels());
+		else if (bitDepth == 16)
+			buffer.asShortBuffer().put((short[]) ip.getPixels());
+		else if (bitDepth == 32)
+			buffer.asFloatBuffer().put((float[]) ip.getPixels());
+		else
+			throw new IOException("unsupported bit depth " + bitDepth);
+		out.write(buffer.array());
+	}
+
+	static ImageProcessor readImage(DataInputStream in) throws IOException {
+		int bitDepth = in.readInt(), w = in.readInt(), h = in.readInt();
+		if (bitDepth != 8 && bitDepth != 16 && bitDepth != 32)
+			throw new IOException("unsupported bit depth " + bitDepth);
+		byte[] bytes = new byte[w * h * (bitDepth / 8)];
+		in.readFully(bytes);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		if (bitDepth == 8)
+			return new ByteProcessor(w, h, bytes);
+		if (bitDepth == 16) {
+			short[] pixels = new short[w * h];
+			buffer.asShortBuffer().get(pixels);
+			return new ShortProcessor(w, h, pixels, null);
+		}
+		float[] pixels = new float[w * h];
+		buffer.asFloatBuffer().get(pixels);
+		return new FloatProcessor(w, h, pixels);
+	}
+}
@@ -10,6 +10,30 @@ import ij.process.ImageProcessor;
  * */
 public class Gaussian {
 
+	/* how gaussian blur is calculated */
+	public enum Mode {
+		FIR, // convolution with truncated kernel of ~6 sigma taps
+		RECURSIVE, // Young - van Vliet recursive filter, cost per pixel doesn't depend on sigma
+		AUTO // recursive filter for sigmas from recursiveMinSigma, FIR for smaller ones
+	}
+
+	/* smaller sigmas are blurred by FIR in AUTO mode (recursive filter is less precise there) */
+	public static final float recursiveMinSigma = 3;
+
+	private Mode mode;
+
+	public Gaussian() {
+		this(Mode.FIR);
+	}
+
+	public Gaussian(Mode mode) {
+		this.mode = mode;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
 	/* Compute Gaussian derivative dx (changes ip) */
 	public void GaussianDerivativeX(ImageProcessor ip, float sigma) {
 		FloatProcessor fp_dx = null;
@@ -38,42 +62,60 @@ public class Gaussian {
 
 	public void GaussianDerivativeXX(ImageProcessor ip, float sigma) {
 		FloatProcessor temp = ip.duplicate().convertToFloatProcessor();
-
-		float v;
 		GaussianBlur(temp, sigma);
-		float[] kern_der2 = { 1, -2, 1 };
-		Convolver con = new Convolver();
-		con.convolveFloat1D(temp, kern_der2, kern_der2.length, 1);
-		
+		SecondDifferenceX(temp);
 		ip.setPixels(0, temp);
 	}
 
 	public void GaussianDerivativeYY(ImageProcessor ip, float sigma) {
 		FloatProcessor temp = ip.duplicate().convertToFloatProcessor();
-		float v;
 		GaussianBlur(temp, sigma);
-		float[] kern_der2 = { 1, -2, 1 };
-		Convolver con = new Convolver();
-		con.convolveFloat1D(temp, kern_der2, 1, kern_der2.length);
-		
+		SecondDifferenceY(temp);
 		ip.setPixels(0, temp);
 	}
 
 	public void GaussianDerivativeXY(ImageProcessor ip, float sigma) {
 		FloatProcessor temp = ip.duplicate().convertToFloatProcessor();
-		float v;
 		GaussianBlur(temp, sigma);
-		float[] kern_der2 = { -0.5f, 0, 0.5f };
+		MixedDifferenceXY(temp);
+		ip.setPixels(0, temp);
+	}
+
+	/* finite differences for already smoothed image (change ip) */
+	public void SecondDifferenceX(ImageProcessor ip) {
+		FloatProcessor fp = ip.convertToFloatProcessor();
+		float[] kern_der2 = { 1, -2, 1 };
 		Convolver con = new Convolver();
-		con.convolveFloat1D(temp, kern_der2, 1, kern_der2.length);
-		con.convolveFloat1D(temp, kern_der2, kern_der2.length, 1);
+		con.convolveFloat1D(fp, kern_der2, kern_der2.length, 1);
+		ip.setPixels(0, fp);
+	}
 
-		ip.setPixels(0, temp);
+	public void SecondDifferenceY(ImageProcessor ip) {
+		FloatProcessor fp = ip.convertToFloatProcessor();
+		float[] kern_der2 = { 1, -2, 1 };
+		Convolver con = new Convolver();
+		con.convolveFloat1D(fp, kern_der2, 1, kern_der2.length);
+		ip.setPixels(0, fp);
+	}
+
+	public void MixedDifferenceXY(ImageProcessor ip) {
+		FloatProcessor fp = ip.convertToFloatProcessor();
+		float[] kern_der2 = { -0.5f, 0, 0.5f };
+		Convolver con = new Convolver();
+		con.convolveFloat1D(fp, kern_der2, 1, kern_der2.length);
+		con.convolveFloat1D(fp, kern_der2, kern_der2.length, 1);
+		ip.setPixels(0, fp);
 	}
 
 	public void GaussianBlur(ImageProcessor ip, float sigma) {
 		FloatProcessor fp = ip.convertToFloatProcessor();
 
+		if (useRecursive(sigma, fp)) {
+			recursiveBlur(fp, Math.abs(sigma));
+			ip.setPixels(0, fp);
+			return;
+		}
+
 		float[] kern = gauss1D(sigma);
 
 		Convolver con = new Convolver();
@@ -94,6 +136,99 @@ public class Gaussian {
 		ImageProcessorCalculator.sqrt(ip);
 	}
 
+	private boolean useRecursive(float sigma, ImageProcessor ip) {
+		// recursive filter coefficients are defined for sigma >= 0.5, and boundary
+		// conditions need at least 3 pixels
+		if (Math.abs(sigma) < 0.5 || ip.getWidth() < 3 || ip.getHeight() < 3)
+			return false;
+		return mode == Mode.RECURSIVE || (mode == Mode.AUTO && Math.abs(sigma) >= recursiveMinSigma);
+	}
+
+	/*
+	 * gaussian blur by Young - van Vliet recursive filter (in place). Borders are
+	 * handled as replicated edge pixels (same as in Convolver), using Triggs -
+	 * Sdika initialization of the backward pass
+	 */
+	private void recursiveBlur(FloatProcessor fp, float sigma) {
+		int w = fp.getWidth(), h = fp.getHeight();
+		float[] pixels = (float[]) fp.getPixels();
+		double[] a = recursiveCoefficients(sigma);
+		double[] m = triggsSdikaMatrix(a);
+		double[] buffer = new double[Math.max(w, h)];
+		for (int y = 0; y < h; y++)
+			recursiveGauss1D(pixels, y * w, 1, w, a, m, buffer);
+		for (int x = 0; x < w; x++)
+			recursiveGauss1D(pixels, x, w, h, a, m, buffer);
+	}
+
+	/* returns {a1, a2, a3}, where filter is u[n] = x[n] + a1*u[n-1] + a2*u[n-2] + a3*u[n-3] */
+	private static double[] recursiveCoefficients(double sigma) {
+		double q;
+		if (sigma >= 2.5)
+			q = 0.98711 * sigma - 0.96330;
+		else
+			q = 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+		double q2 = q * q, q3 = q2 * q;
+		double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+		double b1 = 2.44413 * q + 2.85619 * q2 + 1.26661 * q3;
+		double b2 = -(1.4281 * q2 + 1.26661 * q3);
+		double b3 = 0.422205 * q3;
+		double[] a = { b1 / b0, b2 / b0, b3 / b0 };
+		return a;
+	}
+
+	/* matrix for backward pass initial values (row-major 3x3) */
+	private static double[] triggsSdikaMatrix(double[] a) {
+		double a1 = a[0], a2 = a[1], a3 = a[2];
+		double scale = 1.0 / ((1 + a1 - a2 + a3) * (1 - a1 - a2 - a3) * (1 + a2 + (a1 - a3) * a3));
+		double[] m = new double[9];
+		m[0] = scale * (-a3 * a1 + 1 - a3 * a3 - a2);
+		m[1] = scale * (a3 + a1) * (a2 + a3 * a1);
+		m[2] = scale * a3 * (a1 + a3 * a2);
+		m[3] = scale * (a1 + a3 * a2);
+		m[4] = -scale * (a2 - 1) * (a2 + a3 * a1);
+		m[5] = -scale * a3 * (a3 * a1 + a3 * a3 + a2 - 1);
+		m[6] = scale * (a3 * a1 + a2 + a1 * a1 - a2 * a2);
+		m[7] = scale * (a1 * a2 + a3 * a2 * a2 - a1 * a3 * a3 - a3 * a3 * a3 - a3 * a2 + a3);
+		m[8] = scale * a3 * (a1 + a3 * a2);
+		return m;
+	}
+
+	/* forward and backward passes over n values of data, starting from offset */
+	private static void recursiveGauss1D(float[] data, int offset, int stride, int n, double[] a, double[] m,
+			double[] u) {
+		double a1 = a[0], a2 = a[1], a3 = a[2];
+		double gain = 1 - a1 - a2 - a3;
+
+		// forward pass, values before the start are equal to the first one
+		double p1, p2, p3;
+		p1 = p2 = p3 = data[offset] / gain;
+		for (int k = 0; k < n; k++) {
+			u[k] = data[offset + k * stride] + a1 * p1 + a2 * p2 + a3 * p3;
+			p3 = p2;
+			p2 = p1;
+			p1 = u[k];
+		}
+
+		// backward pass, initial values for replicated last value (Triggs - Sdika)
+		double uPlus = data[offset + (n - 1) * stride] / gain;
+		double vPlus = uPlus / gain;
+		double d0 = u[n - 1] - uPlus, d1 = u[n - 2] - uPlus, d2 = u[n - 3] - uPlus;
+		double v0 = m[0] * d0 + m[1] * d1 + m[2] * d2 + vPlus; // v[n-1]
+		double v1 = m[3] * d0 + m[4] * d1 + m[5] * d2 + vPlus; // v[n]
+		double v2 = m[6] * d0 + m[7] * d1 + m[8] * d2 + vPlus; // v[n+1]
+		double norm = gain * gain;
+		data[offset + (n - 1) * stride] = (float) (norm * v0);
+		double v;
+		for (int k = n - 2; k >= 0; k--) {
+			v = u[k] + a1 * v0 + a2 * v1 + a3 * v2;
+			v2 = v1;
+			v1 = v0;
+			v0 = v;
+			data[offset + k * stride] = (float) (norm * v);
+		}
+	}
+
 	/* get 1d gaussian kernel, normalized */
 	private float[] gauss1D(float sigma) {
 		if (sigma == 0) {
@@ -1,71 +1,129 @@
 package cellTracking;
 
-import javax.imageio.ImageReadParam;
-
-import ij.ImagePlus;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 
-/* calculates Hessian of the image */
+/*
+ * calculates Hessian of the image. Only the smoothed image is kept, eigenvalues
+ * (or their combination) are calculated from it on request by one fused pass,
+ * without storing derivative images
+ */
 public class Hessian {
 
+	/* what getResponse calculates */
+	public enum Response {
+		LAMBDA1, LAMBDA2, LAMBDA2_PLUS_2LAMBDA1 // the last one is laplacian + lambda1, used for blob detection
+	}
+
 	/* image for which hessian is taken */
 	private ImageProcessor ip;
 
-	/* Hessian components */
-	private ImageProcessor Ixx;
-	private ImageProcessor Ixy;
-	private ImageProcessor Iyy;
+	/* image smoothed with sigma, shared with the inverted hessian */
+	private float[] smoothed;
+	private int w, h;
+	private float sigma;
 
-	private ImageProcessor lambda1;
-	private ImageProcessor lambda2;
+	/* if true, this is hessian of the inverted image: all derivatives are negated */
+	private boolean inverted = false;
+
+	/* how the image is smoothed */
+	private Gaussian.Mode gaussianMode = Gaussian.Mode.FIR;
 
 	/* get image for processing in constructor */
 	Hessian(ImageProcessor image) {
 		ip = image;
 	}
 
+	Hessian(ImageProcessor image, Gaussian.Mode gaussianMode) {
+		ip = image;
+		this.gaussianMode = gaussianMode;
+	}
+
 	/* calculate Hessian of the Image for later usage */
 	public void calculateHessian(float sigma) {
-		Gaussian gaus = new Gaussian();
-		Ixx = ip.duplicate();
-		Ixy = ip.duplicate();
-		Iyy = ip.duplicate();
-		/*
-		 * sigma = (float) Math.sqrt(sigma); gaus.GaussianDerivativeX(Ixx, sigma); Ixy =
-		 * Ixx.duplicate(); gaus.GaussianDerivativeX(Ixx, sigma);
-		 * gaus.GaussianDerivativeY(Ixy, sigma); gaus.GaussianDerivativeY(Iyy, sigma);
-		 * gaus.GaussianDerivativeY(Iyy, sigma);
-		 */
-
-		gaus.GaussianDerivativeXX(Ixx, sigma);
-		ImagePlus imp = new ImagePlus("ixx", Ixx);
-		gaus.GaussianDerivativeXY(Ixy, sigma);
-		gaus.GaussianDerivativeYY(Iyy, sigma);
-
-		ImagePlus imp2 = new ImagePlus("ixy", Ixy);
-		ImagePlus imp3 = new ImagePlus("iyy", Iyy);
-		// imp.show();
-		// imp2.show();
-		// imp3.show();
-		float det, Pxx, Pxy, Pyy;
-		lambda1 = ip.duplicate();
-		lambda2 = ip.duplicate();
-		for (int i = 0; i < ip.getPixelCount(); i++) {
-			Pxx = Ixx.getf(i);
-			Pxy = Ixy.getf(i);
-			Pyy = Iyy.getf(i);
-			det = (float) Math.sqrt((Pxx - Pyy) * (Pxx - Pyy) + 4 * Pxy * Pxy);
-			lambda1.setf(i, sigma * sigma * (float) ((Pxx + Pyy + det) / 2));
-			lambda2.setf(i, sigma * sigma * (float) ((Pxx + Pyy - det) / 2));
+		Gaussian gaus = new Gaussian(gaussianMode);
+		FloatProcessor fp = ip.duplicate().convertToFloatProcessor();
+		gaus.GaussianBlur(fp, sigma);
+		smoothed = (float[]) fp.getPixels();
+		w = fp.getWidth();
+		h = fp.getHeight();
+		this.sigma = sigma;
+	}
+
+	/*
+	 * returns hessian of the inverted image (-I or c-I). It is the negated hessian,
+	 * so the smoothed image is shared and nothing is recalculated
+	 */
+	public Hessian inverted() {
+		Hessian res = new Hessian(ip, gaussianMode);
+		res.smoothed = smoothed;
+		res.w = w;
+		res.h = h;
+		res.sigma = sigma;
+		res.inverted = !inverted;
+		return res;
+	}
+
+	/*
+	 * fused kernel: calculates second differences of the smoothed image (the same
+	 * as Gaussian.SecondDifferenceX/Y and MixedDifferenceXY, with replicated
+	 * edges) and the requested eigenvalues response, normalized by sigma^2, into
+	 * "result". If result is null or has wrong size, new array is allocated.
+	 * Returns the result
+	 */
+	public float[] getResponse(Response response, float[] result) {
+		if (result == null || result.length != w * h)
+			result = new float[w * h];
+		float[] dy = new float[w]; // first y-derivative of the current row, for Ixy
+		float s2 = sigma * sigma;
+		float det, Pxx, Pxy, Pyy, l1, l2;
+		int row, up, down, left, right;
+		for (int y = 0; y < h; y++) {
+			row = y * w;
+			up = (y > 0 ? y - 1 : 0) * w;
+			down = (y < h - 1 ? y + 1 : h - 1) * w;
+			for (int x = 0; x < w; x++)
+				dy[x] = (float) (-0.5 * smoothed[up + x] + 0.5 * smoothed[down + x]);
+			for (int x = 0; x < w; x++) {
+				left = x > 0 ? x - 1 : 0;
+				right = x < w - 1 ? x + 1 : w - 1;
+				Pxx = (float) ((double) smoothed[row + left] + -2 * smoothed[row + x] + smoothed[row + right]);
+				Pyy = (float) ((double) smoothed[up + x] + -2 * smoothed[row + x] + smoothed[down + x]);
+				Pxy = (float) (-0.5 * dy[left] + 0.5 * dy[right]);
+				if (inverted) {
+					Pxx = -Pxx;
+					Pxy = -Pxy;
+					Pyy = -Pyy;
+				}
+				det = (float) Math.sqrt((Pxx - Pyy) * (Pxx - Pyy) + 4 * Pxy * Pxy);
+				switch (response) {
+				case LAMBDA1:
+					result[row + x] = s2 * ((Pxx + Pyy + det) / 2);
+					break;
+				case LAMBDA2:
+					result[row + x] = s2 * ((Pxx + Pyy - det) / 2);
+					break;
+				default:
+					l1 = s2 * ((Pxx + Pyy + det) / 2);
+					l2 = s2 * ((Pxx + Pyy - det) / 2);
+					result[row + x] = l2 + l1 + l1;
+				}
+			}
 		}
+		return result;
+	}
+
+	/* the same as getResponse, wrapped into a new image */
+	public ImageProcessor getResponse(Response response) {
+		return new FloatProcessor(w, h, getResponse(response, null));
 	}
 
 	public ImageProcessor getLambda1() {
-		return lambda1;
+		return getResponse(Response.LAMBDA1);
 	}
 
 	public ImageProcessor getLambda2() {
-		return lambda2;
+		return getResponse(Response.LAMBDA2);
 	}
 
 	/*
@@ -85,6 +143,8 @@ public class Hessian {
 	 * the result is zero
 	 */
 	public ImageProcessor getLambdasRatio(float threshold, boolean absLambda1, boolean absLambda2) {
+		ImageProcessor lambda1 = getLambda1();
+		ImageProcessor lambda2 = getLambda2();
 		ImageProcessor res = lambda1.duplicate();
 		float v1, v2;
 		for (int i = 0; i < lambda1.getPixelCount(); i++) {
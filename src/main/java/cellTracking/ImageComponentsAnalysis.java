@@ -1,6 +1,10 @@
 package cellTracking;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Vector;
 
 import ij.ImagePlus;
@@ -26,6 +30,29 @@ public class ImageComponentsAnalysis {
 	private int nComponents; // number of components
 	private ArrayList<ComponentProperties> properties; // component properties
 
+	/*
+	 * dense table from component display intensity to its index in "properties",
+	 * -1 if there is no such component. Labels above maxDenseLabel are looked up
+	 * by scanning the list
+	 */
+	private int[] indexByLabel = new int[0];
+
+	/* grid over mass centers for neighbour search, built on demand and dropped when components change */
+	private CentroidGrid centroidGrid = null;
+	/* incremented when components are added, removed or changed, so cached values can be checked */
+	private int modificationCount = 0;
+
+	/* hessians of the intensity image, calculated on demand for white blobs search */
+	private ScaleSpace intensityScaleSpace = null;
+
+	/* if set, pixel images can be spilled to files of the store and loaded on access */
+	private FrameStore frameStore = null;
+	private int frameId;
+	private boolean intensitySpilled = false; // intensity image doesn't change, so it is written once
+	private boolean hasIntensity;
+
+	private static final int maxDenseLabel = 1 << 24;
+
 	/*
 	 * initialize class from binary image ip with components and intensity image
 	 * "intensityImage". Components are re-labeled from 0 to nComp
@@ -158,11 +185,147 @@ public class ImageComponentsAnalysis {
 	}
 
 	public ImageProcessor getIntensityImage() {
+		loadImages();
 		return imageIntensity;
 	}
 
-	public ImageProcessor getInvertedIntensityImage() {
-		return ImageProcessorCalculator.invertedImage(imageIntensity);
+	/*
+	 * scale space of the intensity image, kept until released. Blobs of the
+	 * inverted intensity image are taken from it with "inverted" flag
+	 */
+	public ScaleSpace getIntensityScaleSpace() {
+		loadImages();
+		if (intensityScaleSpace == null)
+			intensityScaleSpace = new ScaleSpace(imageIntensity);
+		return intensityScaleSpace;
+	}
+
+	/*
+	 * frees everything calculated from the intensity image (hessians), it is
+	 * calculated again if requested
+	 */
+	public void releaseIntensityCaches() {
+		intensityScaleSpace = null;
+	}
+
+	/*
+	 * puts the slice into the store, after that its images are kept in memory only
+	 * while the slice is among the recently used ones
+	 */
+	public void setFrameStore(FrameStore store) {
+		frameStore = store;
+		frameId = store.newFrameId();
+		loadImages();
+	}
+
+	/* makes sure pixel images are in memory, called before they are used */
+	private void loadImages() {
+		if (frameStore != null)
+			frameStore.touch(this);
+	}
+
+	/* writes images to the store files and drops them, called by the store */
+	void spillImages() throws IOException {
+		if (imageComponents == null)
+			return;
+		FrameStore.writeImage(frameStore.getFile(frameId, "components"), imageComponents);
+		hasIntensity = imageIntensity != null;
+		if (hasIntensity && !intensitySpilled) {
+			FrameStore.writeImage(frameStore.getFile(frameId, "intensity"), imageIntensity);
+			intensitySpilled = true;
+		}
+		imageComponents = null;
+		imageIntensity = null;
+		releaseIntensityCaches();
+	}
+
+	/* reads images written by spillImages, called by the store */
+	void loadSpilledImages() throws IOException {
+		if (imageComponents != null)
+			return;
+		imageComponents = FrameStore.readImage(frameStore.getFile(frameId, "components"));
+		if (hasIntensity)
+			imageIntensity = FrameStore.readImage(frameStore.getFile(frameId, "intensity"));
+	}
+
+	/* writes images and the properties table, for the segmentation cache */
+	void write(DataOutputStream out) throws IOException {
+		loadImages();
+		FrameStore.writeImage(out, imageComponents);
+		out.writeBoolean(imageIntensity != null);
+		if (imageIntensity != null)
+			FrameStore.writeImage(out, imageIntensity);
+		out.writeInt(nComponents);
+		out.writeInt(properties.size());
+		for (ComponentProperties p : properties) {
+			out.writeInt(p.displayIntensity);
+			out.writeFloat(p.avrgIntensity);
+			out.writeFloat(p.perimeter);
+			out.writeInt(p.area);
+			out.writeFloat(p.circularity);
+			out.writeInt(p.xmin);
+			out.writeInt(p.xmax);
+			out.writeInt(p.ymin);
+			out.writeInt(p.ymax);
+			out.writeInt(p.childCount);
+			out.writeBoolean(p.hasParent);
+			out.writeByte(p.state.ordinal());
+			out.writeDouble(p.massCenter.getX());
+			out.writeDouble(p.massCenter.getY());
+		}
+	}
+
+	/* reads components written by write */
+	static ImageComponentsAnalysis read(DataInputStream in) throws IOException {
+		ImageComponentsAnalysis comps = new ImageComponentsAnalysis();
+		comps.imageComponents = FrameStore.readImage(in);
+		comps.w = comps.imageComponents.getWidth();
+		comps.h = comps.imageComponents.getHeight();
+		if (in.readBoolean())
+			comps.imageIntensity = FrameStore.readImage(in);
+		comps.nComponents = in.readInt();
+		int count = in.readInt();
+		comps.properties = new ArrayList<ComponentProperties>(count);
+		State[] states = State.values();
+		for (int i = 0; i < count; i++) {
+			ComponentProperties p = new ComponentProperties();
+			p.displayIntensity = in.readInt();
+			p.avrgIntensity = in.readFloat();
+			p.perimeter = in.readFloat();
+			p.area = in.readInt();
+			p.circularity = in.readFloat();
+			p.xmin = in.readInt();
+			p.xmax = in.readInt();
+			p.ymin = in.readInt();
+			p.ymax = in.readInt();
+			p.childCount = in.readInt();
+			p.hasParent = in.readBoolean();
+			p.state = states[in.readByte()];
+			double x = in.readDouble();
+			p.massCenter = new Point(x, in.readDouble());
+			comps.properties.add(p);
+		}
+		comps.rebuildLabelIndex();
+		return comps;
+	}
+
+	/* for read */
+	private ImageComponentsAnalysis() {
+	}
+
+	/*
+	 * grid over component mass centers, to look only through components close to
+	 * a point
+	 */
+	public CentroidGrid getCentroidGrid() {
+		if (centroidGrid == null)
+			centroidGrid = new CentroidGrid(this);
+		return centroidGrid;
+	}
+
+	/* changes when components are added, removed or changed */
+	public int getModificationCount() {
+		return modificationCount;
 	}
 
 	public int getComponentsCount() {
@@ -174,58 +337,20 @@ public class ImageComponentsAnalysis {
 	 * center for components and fills the "properties" array
 	 */
 	public void fillBasicProperties() {
+		loadImages();
 		// presetting values to find containing rectangle
 		for (int i = 0; i < properties.size(); i++) {
 			properties.get(i).setDefaultValues(w, h);
 		}
-
-		int v; // component intensity in the image
-		int newIndex = 0; // new component index
-		int index; // current index
-		int pix4c, pixDc;
-		for (int y = 0; y < h; y++) {
-			for (int x = 0; x < w; x++) {
-				v = imageComponents.get(x, y);
-				// components can be indexed in whatever range (but no negatives), dont rely on
-				// v=0 to be background. And make background a component
-				// if (v > 0) {
-				index = findComponentIndexByDisplayIntensity(v);
-				if (index == -1)
-					index = newIndex++;
-				// System.out.println(index);
-				properties.get(index).displayIntensity = v;
-				properties.get(index).area++;
-				if (imageIntensity != null)
-					properties.get(index).avrgIntensity += imageIntensity.getf(x, y);
-				properties.get(index).massCenter.addIn(new Point(x, y));
-
-				if (isBorderPixel4C(imageComponents, x, y)) { // calculate perimeter
-					pix4c = numberOfNeighbours4C(imageComponents, x, y);
-					pixDc = numberOfNeighboursDiagC(imageComponents, x, y);
-					properties
-							.get(index).perimeter += (float) ((pix4c * 1.0f + pixDc * Math.sqrt(2)) / (pix4c + pixDc));
-				}
-				// if (hasDiagonalBorderNeighbours(image, x, y)) properties.get(v).perimeter +=
-				// Math.sqrt(2);
-				// else properties.get(v).perimeter++;
-
-				if (properties.get(index).xmin > x)
-					properties.get(index).xmin = x;
-				if (properties.get(index).xmax < x)
-					properties.get(index).xmax = x;
-				if (properties.get(index).ymin > y)
-					properties.get(index).ymin = y;
-				if (properties.get(index).ymax < y)
-					properties.get(index).ymax = y;
-
-				// }
-			}
-		}
-
-		for (int i = 0; i < properties.size(); i++) { // calculate average intensity, mass center (area is number of
-														// pixels)
-			properties.get(i).avrgIntensity /= properties.get(i).area;
-			properties.get(i).massCenter.divideByConstIn(properties.get(i).area);
+		Arrays.fill(indexByLabel, -1);
+		componentsChanged();
+
+		// components can be indexed in whatever range (but no negatives), dont rely on
+		// v=0 to be background. And make background a component
+		RegionProperties regions = new RegionProperties(imageComponents, imageIntensity);
+		for (int i = 0; i < regions.getCount(); i++) {
+			regions.fillComponentProperties(i, properties.get(i));
+			setLabelIndex(regions.getLabel(i), i);
 		}
 	}
 
@@ -240,28 +365,40 @@ public class ImageComponentsAnalysis {
 					+ "was different from components images size (" + w + " x " + " h ");
 			return -1;
 		}
+		return addComponent(ComponentMask.fromImage(componentMask, intensityInMask), state);
+	}
 
+	/*
+	 * the same, but only pixels of the mask box are looked through. Returns index
+	 * of the new component or -1
+	 */
+	public int addComponent(ComponentMask componentMask, State state) {
+		loadImages();
 		int resultIntensity = getNewIntensity();
 		ComponentProperties newProperties = new ComponentProperties();
-		newProperties.setDefaultValues(componentMask.getWidth(), componentMask.getHeight());
+		newProperties.setDefaultValues(w, h);
 		newProperties.displayIntensity = resultIntensity;
 		newProperties.state = state;
 
 		int pix4c, pixDc;
-		for (int y = 0; y < componentMask.getHeight(); y++)
-			for (int x = 0; x < componentMask.getWidth(); x++) {
+		double sumX = 0, sumY = 0;
+		int x0 = componentMask.getX0(), y0 = componentMask.getY0();
+		int x1 = Math.min(w, x0 + componentMask.getWidth()), y1 = Math.min(h, y0 + componentMask.getHeight());
+		for (int y = y0; y < y1; y++)
+			for (int x = x0; x < x1; x++) {
 				// only look at pixels that are in mask and do not correspond to existing
 				// component
-				if (componentMask.get(x, y) == intensityInMask && imageComponents.get(x, y) == 0) {
+				if (componentMask.contains(x, y) && imageComponents.get(x, y) == 0) {
 					newProperties.area++;
 					if (imageIntensity != null)
 						newProperties.avrgIntensity += imageIntensity.getf(x, y);
-					newProperties.massCenter.addIn(new Point(x, y));
+					sumX += x;
+					sumY += y;
 
 					if (isBorderPixel4C(imageComponents, x, y)) { // calculate perimeter
 						pix4c = numberOfNeighbours4C(imageComponents, x, y);
 						pixDc = numberOfNeighboursDiagC(imageComponents, x, y);
-						newProperties.perimeter += (float) ((pix4c * 1.0f + pixDc * Math.sqrt(2)) / (pix4c + pixDc));
+						newProperties.perimeter += RegionProperties.perimeterContribution(pix4c, pixDc);
 					}
 					imageComponents.set(x, y, resultIntensity);
 					if (newProperties.xmin > x)
@@ -277,9 +414,11 @@ public class ImageComponentsAnalysis {
 		// System.out.println("added component area is " + newProperties.area);
 		if (newProperties.area != 0) {
 			newProperties.avrgIntensity /= newProperties.area;
-			newProperties.massCenter.divideByConstIn(newProperties.area);
+			newProperties.massCenter.set_xy(sumX / newProperties.area, sumY / newProperties.area);
 			newProperties.calcCircularity();
 			properties.add(newProperties);
+			setLabelIndex(resultIntensity, properties.size() - 1);
+			componentsChanged();
 			return properties.size() - 1;
 		} else {
 			//showComponentsImage();
@@ -305,7 +444,8 @@ public class ImageComponentsAnalysis {
 	public boolean checkIfChildComponents(int index1, int index2, Point parentCenterPoint, float parentAvrgIntensity,
 			double penalThreshold) {
 		double penal = calculateChildPenalScore(index1, index2, parentCenterPoint, parentAvrgIntensity);
-		System.out.println(" penal score is " + penal);
+		if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+			Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, " penal score is " + penal);
 		return penal < penalThreshold;
 	}
 
@@ -350,6 +490,7 @@ public class ImageComponentsAnalysis {
 	}
 
 	public ImageProcessor getImageComponents() {
+		loadImages();
 		return imageComponents;
 	}
 
@@ -359,6 +500,7 @@ public class ImageComponentsAnalysis {
 	 * image after water segmentation on markers
 	 */
 	public void mergeComponentsByMarkers(ImageProcessor markers, ImageComponentsAnalysis prevComponents, int d) {
+		loadImages();
 		if (prevComponents == null)
 			return;
 		ImageProcessor mask;
@@ -366,14 +508,17 @@ public class ImageComponentsAnalysis {
 		ArrayList<Integer> list = new ArrayList<Integer>(3);
 		for (int i = 0; i < prevComponents.getComponentsCount(); i++) {
 			if (prevComponents.getComponentArea(i) < 2000) { // dont do this for big background regions
-				System.out.println("component " + i + ", area " + prevComponents.getComponentArea(i));
+				if (Trace.isEnabled(Trace.Subsystem.SEGMENTATION, Trace.Level.DEBUG))
+					Trace.log(Trace.Subsystem.SEGMENTATION, Trace.Level.DEBUG,
+							"component " + i + ", area " + prevComponents.getComponentArea(i));
 				mask = prevComponents.getDilatedComponentImage(i, d);
 				list = getComponentListByMask(markers, mask, imageComponents, prevComponents.getComponentX0(i),
 						prevComponents.getComponentY0(i));
 				// first, remove big components from the list
 				for (int k = 0; k < list.size(); k++) {
 					index = list.get(k);
-					System.out.print(index + " ");
+					if (Trace.isEnabled(Trace.Subsystem.SEGMENTATION, Trace.Level.DEBUG))
+						Trace.format(Trace.Subsystem.SEGMENTATION, Trace.Level.DEBUG, "%d ", index);
 					if (this.properties.get(index).area > 1000)
 						list.remove(k);
 				}
@@ -388,15 +533,19 @@ public class ImageComponentsAnalysis {
 				if (list.size() > 0) {
 					// intens = properties.get(list.get(0)).intensity;
 					intens = prevComponents.getComponentDisplayIntensity(i);
-					for (int k = 1; k < list.size(); k++) {
-						changeComponentDisplayIntensityByIndex(list.get(k), intens);
-						fillBasicProperties();
-						fillCircularity();
+					// indexes are shifted after each merge, so remember labels first
+					int[] labels = new int[list.size()];
+					for (int k = 0; k < list.size(); k++)
+						labels[k] = getComponentDisplayIntensity(list.get(k));
+					for (int k = 1; k < labels.length; k++) {
+						index = findComponentIndexByDisplayIntensity(labels[k]);
+						if (index != -1)
+							changeComponentDisplayIntensityByIndex(index, intens);
 					}
 				}
 			}
 		}
-		System.out.println("___");
+		Trace.log(Trace.Subsystem.SEGMENTATION, Trace.Level.DEBUG, "___");
 	}
 
 	/*
@@ -425,6 +574,7 @@ public class ImageComponentsAnalysis {
 	/* filter components by area and circularity */
 	public void filterComponents(int minArea, int maxArea, float minCirc, float maxCirc, float minAvrgIntensity,
 			float maxAvrgIntensity, boolean discardWhiteBlobs) {
+		loadImages();
 		ArrayList<Integer> removeList = new ArrayList<Integer>(20); // what components to filter
 		int area;
 		float circ, avrgInt;
@@ -461,6 +611,7 @@ public class ImageComponentsAnalysis {
 
 	public ImageProcessor getFilteredComponentsIp(int minArea, int maxArea, float minCirc, float maxCirc,
 			float minAvrgIntensity, float maxAvrgIntensity, boolean discardWhiteBlobs) {
+		loadImages();
 		filterComponents(minArea, maxArea, minCirc, maxCirc, minAvrgIntensity, maxAvrgIntensity, discardWhiteBlobs);
 		return imageComponents;
 	}
@@ -489,6 +640,7 @@ public class ImageComponentsAnalysis {
 	}
 
 	public int getComponentIndexByPosition(int x, int y) {
+		loadImages();
 		int intensity = imageComponents.get(x, y);
 		return findComponentIndexByDisplayIntensity(intensity);
 	}
@@ -502,6 +654,7 @@ public class ImageComponentsAnalysis {
 	}
 
 	public ImageProcessor getMorphedComponentImage(Operation op, Shape shape, int nComp, int d, int intensity) {
+		loadImages();
 		int x0 = properties.get(nComp).xmin;
 		int x1 = properties.get(nComp).xmax;
 		int y0 = properties.get(nComp).ymin;
@@ -539,6 +692,7 @@ public class ImageComponentsAnalysis {
 	/* change all component contours with morphing to improve
 	 * now dilation 1 with closing 1+ */
 	public void improveComponentContours() {		
+		loadImages();
 
 		//ImageProcessor compImage = getMorphedComponentImage(op, shape, nComp, d);
 		for (int i=0; i<getComponentsCount(); i++) {
@@ -645,6 +799,7 @@ public class ImageComponentsAnalysis {
 	 * '0' should be the canny edge detection thingy
 	 */
 	public void mergeComponents() {
+		loadImages();
 		int upLabel, downLabel, leftLabel, rightLabel;
 		int l;
 		ImageProcessor originalComponents = imageComponents.duplicate();
@@ -696,19 +851,82 @@ public class ImageComponentsAnalysis {
 	private void changeComponentDisplayIntensityByIndex(int compIndex, int newIntensity) {
 		if (getComponentDisplayIntensity(compIndex) == newIntensity) // dont do anything if it's the same component
 			return;
+		relabelComponent(compIndex, newIntensity, false);
+	}
+
+	/*
+	 * draws component with newIntensity and merges its properties into the
+	 * component with that intensity. If there is no such component, the relabeled
+	 * one is kept with new intensity, or discarded if "discardIfNoTarget". Only
+	 * the component bounding box is processed: area, intensity and mass center are
+	 * combined as weighted sums, perimeters are recalculated around relabeled
+	 * pixels
+	 */
+	private void relabelComponent(int compIndex, int newIntensity, boolean discardIfNoTarget) {
+		ComponentProperties source = properties.get(compIndex);
+		int intensity = source.displayIntensity;
 		int x0, x1, y0, y1;
-		x0 = properties.get(compIndex).xmin;
-		x1 = properties.get(compIndex).xmax;
-		y0 = properties.get(compIndex).ymin;
-		y1 = properties.get(compIndex).ymax;
-		int intensity = properties.get(compIndex).displayIntensity;
+		x0 = source.xmin;
+		x1 = source.xmax;
+		y0 = source.ymin;
+		y1 = source.ymax;
+
+		// border state can change for pixels next to relabeled ones, and their
+		// perimeter contribution - for one more pixel
+		addPerimeterInBox(x0 - 2, y0 - 2, x1 + 2, y1 + 2, -1);
 		for (int y = y0; y <= y1; y++)
 			for (int x = x0; x <= x1; x++)
 				if (imageComponents.get(x, y) == intensity)
 					imageComponents.set(x, y, newIntensity);
 
-		properties.remove(compIndex);
-		nComponents--;
+		int target = findComponentIndexByDisplayIntensity(newIntensity);
+		if (target != -1) {
+			ComponentProperties p = properties.get(target);
+			int area = p.area + source.area;
+			if (area > 0) {
+				p.avrgIntensity = (p.avrgIntensity * p.area + source.avrgIntensity * source.area) / area;
+				p.massCenter.set_xy((p.massCenter.getX() * p.area + source.massCenter.getX() * source.area) / area,
+						(p.massCenter.getY() * p.area + source.massCenter.getY() * source.area) / area);
+			}
+			p.area = area;
+			p.xmin = Math.min(p.xmin, x0);
+			p.xmax = Math.max(p.xmax, x1);
+			p.ymin = Math.min(p.ymin, y0);
+			p.ymax = Math.max(p.ymax, y1);
+		}
+		if (target != -1 || discardIfNoTarget) {
+			properties.remove(compIndex);
+			nComponents--;
+		} else
+			source.displayIntensity = newIntensity;
+		rebuildLabelIndex();
+		addPerimeterInBox(x0 - 2, y0 - 2, x1 + 2, y1 + 2, 1);
+	}
+
+	/*
+	 * adds (sign=1) or subtracts (sign=-1) perimeter contributions of border pixels
+	 * in the box to their components, and updates their circularity
+	 */
+	private void addPerimeterInBox(int x0, int y0, int x1, int y1, int sign) {
+		int index, pix4c, pixDc;
+		ComponentProperties p;
+		x0 = Math.max(x0, 0);
+		y0 = Math.max(y0, 0);
+		x1 = Math.min(x1, w - 1);
+		y1 = Math.min(y1, h - 1);
+		for (int y = y0; y <= y1; y++)
+			for (int x = x0; x <= x1; x++) {
+				if (!isBorderPixel4C(imageComponents, x, y))
+					continue;
+				index = findComponentIndexByDisplayIntensity(imageComponents.get(x, y));
+				if (index == -1)
+					continue;
+				p = properties.get(index);
+				pix4c = numberOfNeighbours4C(imageComponents, x, y);
+				pixDc = numberOfNeighboursDiagC(imageComponents, x, y);
+				p.perimeter += sign * RegionProperties.perimeterContribution(pix4c, pixDc);
+				p.calcCircularity();
+			}
 	}
 
 	private void changeComponentIntensity(int intensity, int newIntensity) {
@@ -725,10 +943,12 @@ public class ImageComponentsAnalysis {
 					imageComponents.set(x, y, newIntensity);
 
 		properties.get(nComp).displayIntensity = newIntensity;
+		rebuildLabelIndex();
 		// here we should recalculate all properties...or not here
 	}
 	
 	public Roi getComponentAsRoi(int index) {
+		loadImages();
 		Roi roi = null;
 		Wand w = new Wand(imageComponents);
 		int currIntens = getComponentDisplayIntensity(index);	
@@ -744,6 +964,7 @@ public class ImageComponentsAnalysis {
 	 * component in this.imageComponents. Rois are ordered by intensity
 	 */
 	public void addRoisToManager(RoiManager manager, ImagePlus img, int slice) {
+		loadImages();
 		// RoiManager res = new RoiManager();
 		Roi roi;
 		Wand w = new Wand(imageComponents);
@@ -783,6 +1004,7 @@ public class ImageComponentsAnalysis {
 	}
 
 	public ImageProcessor getAvrgIntensityImage() {
+		loadImages();
 		ImageProcessor result = imageComponents.duplicate();
 		int v;
 		for (int i = 0; i < result.getPixelCount(); i++) {
@@ -795,6 +1017,7 @@ public class ImageComponentsAnalysis {
 	}
 
 	public ImageProcessor componentsBasinsImage(int erosionRadius) {
+		loadImages();
 		int w = imageComponents.getWidth();
 		int h = imageComponents.getHeight();
 		ImageProcessor result = new ByteProcessor(w, h);
@@ -817,8 +1040,13 @@ public class ImageComponentsAnalysis {
 	 * image (by setting its intensity to zero)
 	 */
 	public void removeComponent(ImageProcessor image, int intensity) {
+		loadImages();
 		int x0, x1, y0, y1, nComp;
 		nComp = findComponentIndexByDisplayIntensity(intensity);
+		if (image == imageComponents) {
+			removeComponentByIndex(nComp);
+			return;
+		}
 		x0 = properties.get(nComp).xmin;
 		x1 = properties.get(nComp).xmax;
 		y0 = properties.get(nComp).ymin;
@@ -831,33 +1059,64 @@ public class ImageComponentsAnalysis {
 
 		properties.remove(nComp); // remove from the list
 		nComponents--; // decrease number
+		rebuildLabelIndex();
 	}
 
+	/*
+	 * removes component from properties and image. Its pixels become background,
+	 * so background component (if it is in the list) is updated
+	 */
 	public void removeComponentByIndex(int index) {
-		int x0, x1, y0, y1;
-		int intensity = getComponentDisplayIntensity(index);
-		x0 = properties.get(index).xmin;
-		x1 = properties.get(index).xmax;
-		y0 = properties.get(index).ymin;
-		y1 = properties.get(index).ymax;
-
-		for (int y = y0; y <= y1; y++)
-			for (int x = x0; x <= x1; x++)
-				if (imageComponents.get(x, y) == intensity)
-					imageComponents.set(x, y, 0);
-
-		properties.remove(index); // remove from the list
-		nComponents--; // decrease number
+		loadImages();
+		if (getComponentDisplayIntensity(index) == 0) { // removing the background itself
+			properties.remove(index);
+			nComponents--;
+			rebuildLabelIndex();
+			return;
+		}
+		relabelComponent(index, 0, true);
 	}
 
 	/* return index of component with given intensity. Returns -1 if not found */
 	private int findComponentIndexByDisplayIntensity(int displayIntensity) {
+		if (displayIntensity >= 0 && displayIntensity <= maxDenseLabel)
+			return displayIntensity < indexByLabel.length ? indexByLabel[displayIntensity] : -1;
 		for (int i = 0; i < properties.size(); i++)
 			if (properties.get(i).displayIntensity == displayIntensity)
 				return i;
 		return -1;
 	}
 
+	/* puts label->index pair into the table, growing it if needed */
+	private void setLabelIndex(int label, int index) {
+		if (label < 0 || label > maxDenseLabel)
+			return;
+		if (label >= indexByLabel.length) {
+			int oldLength = indexByLabel.length;
+			indexByLabel = Arrays.copyOf(indexByLabel, Math.min(Math.max(label + 1, 2 * oldLength), maxDenseLabel + 1));
+			Arrays.fill(indexByLabel, oldLength, indexByLabel.length, -1);
+		}
+		indexByLabel[label] = index;
+	}
+
+	/* drops values calculated from the components */
+	private void componentsChanged() {
+		centroidGrid = null;
+		modificationCount++;
+	}
+
+	/*
+	 * refills label->index table from the properties list. Should be called after
+	 * components are removed or relabeled, since indexes are shifted. If several
+	 * components share the label, the first one is kept (same as list search)
+	 */
+	private void rebuildLabelIndex() {
+		Arrays.fill(indexByLabel, -1);
+		componentsChanged();
+		for (int i = properties.size() - 1; i >= 0; i--)
+			setLabelIndex(properties.get(i).displayIntensity, i);
+	}
+
 	/* calculates and fills the circularity property */
 	private void fillCircularity() {
 		for (int i = 0; i < nComponents; i++)
@@ -923,6 +1182,7 @@ public class ImageComponentsAnalysis {
 	}
 
 	public void showComponentsImage() {
+		loadImages();
 		ImagePlus image = new ImagePlus("components image", imageComponents);
 		image.show();
 	}
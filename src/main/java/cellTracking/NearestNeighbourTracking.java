@@ -3,6 +3,9 @@ package cellTracking;
 import java.awt.Color;
 import java.awt.image.ColorModel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Stack;
 
 import graph.Arc;
@@ -24,6 +27,14 @@ import cellTracking.PenaltyFunction;
 import colorPicking.ColorPicker;
 
 public class NearestNeighbourTracking {
+	/*
+	 * how components of neighbouring slices are linked: by greedy mutual best
+	 * score or by minimum total penalty of the slice pair
+	 */
+	public enum LinkingMode {
+		GREEDY, ASSIGNMENT
+	}
+
 	private Graph cellGraph;
 
 	private int currSlice;
@@ -31,6 +42,10 @@ public class NearestNeighbourTracking {
 
 	private Tracks tracks;
 
+	/* penalties between components of slice pairs, shared by all tracking passes */
+	private PenaltyCache penaltyCache = new PenaltyCache();
+	private FrameStore frameStore = null; // keeps images of a window of slices, if set
+
 	/*
 	 * List of components classes, containing image with labels and information
 	 * about them. Should be formed during processing and then processed.
@@ -48,9 +63,25 @@ public class NearestNeighbourTracking {
 	}
 
 	public void addComponentsAnalysis(ImageComponentsAnalysis comps) {
+		comps.getCentroidGrid(); // build it once, candidates are searched in it
+		if (frameStore != null)
+			comps.setFrameStore(frameStore);
 		componentsList.add(comps);
 	}
 
+	/*
+	 * slices added after this keep their images in the store, so only a window of
+	 * slices is in memory. The store should hold at least the slices looked through
+	 * by multi-slice tracking plus 2 slices of mitosis lookahead
+	 */
+	public void setFrameStore(FrameStore store) {
+		frameStore = store;
+	}
+
+	public FrameStore getFrameStore() {
+		return frameStore;
+	}
+
 	public int getSlicesCount() {
 		return slicesCount;
 	}
@@ -85,13 +116,14 @@ public class NearestNeighbourTracking {
 			}
 			m2 = comp2.getComponentMassCenter(i); //
 			// closestIndex = findClosestPointIndex(m2, comp1, radius);
-			closestIndex = findBestScoringComponentIndex(comp2, i, comp1, radius, scoreThreshold);
+			closestIndex = findBestScoringComponentIndex(comp2, t2, i, comp1, t1, radius, scoreThreshold);
 			if (closestIndex != -1) { // closest component found, add to graph
 				// should also check back - if for the found component the closest neighbour is
 				// the same, then link them, otherwise skip?
 				m1 = comp1.getComponentMassCenter(closestIndex);
 				// backClosestIndex = findClosestPointIndex(m1, comp2, radius);
-				backClosestIndex = findBestScoringComponentIndex(comp1, closestIndex, comp2, radius, scoreThreshold);
+				backClosestIndex = findBestScoringComponentIndex(comp1, t1, closestIndex, comp2, t2, radius,
+						scoreThreshold);
 				if (backClosestIndex != i)
 					continue;
 				if (comp1.getComponentChildCount(closestIndex) > 0) { // only if it has no children
@@ -121,7 +153,7 @@ public class NearestNeighbourTracking {
 			}
 			m2 = comp2.getComponentMassCenter(i); // component without parent
 			// closestIndex = findClosestPointIndex(m2, comp1, radius);
-			closestIndex = findBestScoringComponentIndex(comp2, i, comp1, radius, scoreThreshold);
+			closestIndex = findBestScoringComponentIndex(comp2, t2, i, comp1, t1, radius, scoreThreshold);
 			// here should be daughter-check, not the same scoring function
 
 			if (closestIndex != -1) { // closest component found, add to graph
@@ -131,15 +163,19 @@ public class NearestNeighbourTracking {
 				}
 				if (comp1.getComponentChildCount(closestIndex) == 1
 						&& comp1.getComponentState(closestIndex) != State.MITOSIS) {
-					System.out.println("component with index " + closestIndex + " discarded by state");
+					if (Trace.isEnabled(Trace.Subsystem.TRACKING, Trace.Level.DEBUG))
+						Trace.log(Trace.Subsystem.TRACKING, Trace.Level.DEBUG,
+								"component with index " + closestIndex + " discarded by state");
 					continue; // if closest parent has 1 child but not mitosys, then don't add
 				}
 				// if closest component in comp1 has 0 children or 1 children
 				v1 = new Node(t1, closestIndex);
 				v2 = new Node(t2, i);
-				System.out.println("Arc made during back tracking: " + v1 + " -- " + v2
-						+ " with comp1(closest) child count being " + comp1.getComponentChildCount(closestIndex)
-						+ "and comp2 child count being " + comp2.getComponentChildCount(i));
+				if (Trace.isEnabled(Trace.Subsystem.TRACKING, Trace.Level.DEBUG))
+					Trace.log(Trace.Subsystem.TRACKING, Trace.Level.DEBUG, "Arc made during back tracking: " + v1
+							+ " -- " + v2 + " with comp1(closest) child count being "
+							+ comp1.getComponentChildCount(closestIndex) + "and comp2 child count being "
+							+ comp2.getComponentChildCount(i));
 				cellGraph.addArcFromToAddable(v1, v2);
 				comp2.setComponentHasParent(i);
 				comp1.incComponentChildCount(closestIndex);
@@ -199,8 +235,8 @@ public class NearestNeighbourTracking {
 
 			if (index != -1) { // something was found
 				// check back-compatabilty
-				backBestIndex = findBestScoringComponentIndex(comp2List.get(slice), index, comp1, maxRadius,
-						scoreThreshold);
+				backBestIndex = findBestScoringComponentIndex(comp2List.get(slice), slice, index, comp1, t1,
+						maxRadius, scoreThreshold);
 				if (backBestIndex != i)
 					continue;
 				if (comp2List.get(slice).getComponentHasParent(index)
@@ -210,11 +246,13 @@ public class NearestNeighbourTracking {
 				v1 = new Node(t1, i);
 				v2 = new Node(slice, index);
 				cellGraph.addArcFromToAddable(v1, v2);
-				if (nSlices > 1) {
-					System.out.println("Arc added during multislice:" + v1 + " to " + v2);
-					System.out
-							.println("or by adj: " + cellGraph.getNodeIndex(v1) + " to " + cellGraph.getNodeIndex(v2));
-					System.out.println("v2 parameters: hasParent=" + comp2List.get(slice).getComponentHasParent(index));
+				if (nSlices > 1 && Trace.isEnabled(Trace.Subsystem.TRACKING, Trace.Level.DEBUG)) {
+					Trace.log(Trace.Subsystem.TRACKING, Trace.Level.DEBUG,
+							"Arc added during multislice:" + v1 + " to " + v2);
+					Trace.log(Trace.Subsystem.TRACKING, Trace.Level.DEBUG,
+							"or by adj: " + cellGraph.getNodeIndex(v1) + " to " + cellGraph.getNodeIndex(v2));
+					Trace.log(Trace.Subsystem.TRACKING, Trace.Level.DEBUG,
+							"v2 parameters: hasParent=" + comp2List.get(slice).getComponentHasParent(index));
 				}
 				comp2List.get(slice).setComponentHasParent(index);
 				comp1.incComponentChildCount(i);
@@ -224,6 +262,53 @@ public class NearestNeighbourTracking {
 		}
 	}
 
+	/*
+	 * links components of comp1 (slice t1) with components of comp2 (slice t2)
+	 * with the minimum total penalty, instead of greedy mutual best. Pairs not
+	 * further than maxRadius with penalty not higher than scoreThreshold are
+	 * candidates. Component may also stay unlinked (its track ends or starts) for
+	 * scoreThreshold/2, so a pair is linked only if it is better than leaving both
+	 * components unlinked. The same components are skipped as in
+	 * findBestScoringComponents
+	 */
+	public void findAssignedComponents(ImageComponentsAnalysis comp1, int t1, ImageComponentsAnalysis comp2, int t2,
+			double maxRadius, double scoreThreshold) {
+		int n1 = comp1.getComponentsCount(), n2 = comp2.getComponentsCount();
+		PenaltyCache.PenaltyTable penalties = penaltyCache.getTable(comp1, t1, comp2, t2, maxRadius);
+		int[] start = new int[n1 + 1];
+		int[] cols = new int[penalties.size()];
+		double[] cost = new double[cols.length];
+		boolean[] free2 = new boolean[n2];
+		for (int j = 0; j < n2; j++)
+			free2[j] = !comp2.getComponentHasParent(j) && comp2.getComponentState(j) != State.MITOSIS;
+
+		int e = 0;
+		for (int i = 0; i < n1; i++) {
+			start[i] = e;
+			if (comp1.getComponentChildCount(i) > 0 || comp1.getComponentState(i) == State.MITOSIS)
+				continue;
+			for (int k = penalties.start(i); k < penalties.end(i); k++) {
+				if (!free2[penalties.index(k)] || penalties.penalty(k) > scoreThreshold)
+					continue;
+				cols[e] = penalties.index(k);
+				cost[e++] = penalties.penalty(k);
+			}
+		}
+		start[n1] = e;
+
+		int[] links = SparseAssignment.link(n1, n2, start, cols, cost, scoreThreshold / 2, scoreThreshold / 2);
+		Node v1, v2;
+		for (int i = 0; i < n1; i++) {
+			if (links[i] == -1)
+				continue;
+			v1 = new Node(t1, i);
+			v2 = new Node(t2, links[i]);
+			cellGraph.addArcFromToAddable(v1, v2);
+			comp2.setComponentHasParent(links[i]);
+			comp1.incComponentChildCount(i);
+		}
+	}
+
 	/*
 	 * try multi-slice with extra picking of close components: i.e. when score of
 	 * the component is lower than some threshold in the closest slice, then connect
@@ -251,11 +336,19 @@ public class NearestNeighbourTracking {
 	// separate one-slice tracking from multi-slice, so we can do them at different
 	// times (i.e. after mitosis detection)
 	public void trackComponentsOneSlice(double maxRadius, double oneSliceScoreThreshold) {
+		trackComponentsOneSlice(maxRadius, oneSliceScoreThreshold, LinkingMode.GREEDY);
+	}
+
+	public void trackComponentsOneSlice(double maxRadius, double oneSliceScoreThreshold, LinkingMode mode) {
 		for (int t = 0; t < componentsList.size() - 1; t++) {
 			String log = String.format("One-slice tracking, slice %d %n", t);
 			IJ.log(log);
-			findBestScoringComponents(componentsList.get(t), t, componentsList, 1, maxRadius, oneSliceScoreThreshold,
-					1);
+			if (mode == LinkingMode.ASSIGNMENT)
+				findAssignedComponents(componentsList.get(t), t, componentsList.get(t + 1), t + 1, maxRadius,
+						oneSliceScoreThreshold);
+			else
+				findBestScoringComponents(componentsList.get(t), t, componentsList, 1, maxRadius,
+						oneSliceScoreThreshold, 1);
 		}
 	}
 
@@ -266,28 +359,34 @@ public class NearestNeighbourTracking {
 			IJ.log(log);
 			findBestScoringComponents(componentsList.get(t), t, componentsList, nSlices, maxRadius, scoreThreshold,
 					timeDecayCoefficient);
+			penaltyCache.removePairsBefore(t + 1); // slices before t + 1 are not linked from anymore
 		}
+		penaltyCache.clear();
 	}
 
 	/*
 	 * Similar to 'findClosestPoint', returns the component index in comp2, which
 	 * has the best score for component i1 in comp1. maxRadius sets the look up
 	 * radius for components; if min score is higher than scoreThreshold, then don't
-	 * consider it "best", return -1 (not found)
+	 * consider it "best", return -1 (not found). Only components within maxRadius
+	 * are scored, their penalties are taken from the cache (t1 and t2 are slices of
+	 * comp1 and comp2)
 	 */
-	private int findBestScoringComponentIndex(ImageComponentsAnalysis comp1, int i1, ImageComponentsAnalysis comp2,
-			double maxRadius, double scoreThreshold) {
+	private int findBestScoringComponentIndex(ImageComponentsAnalysis comp1, int t1, int i1,
+			ImageComponentsAnalysis comp2, int t2, double maxRadius, double scoreThreshold) {
 		int min_i = -1;
 		double min_score = Double.MAX_VALUE;
 		double score;
-		for (int i = 0; i < comp2.getComponentsCount(); i++) {
-			score = PenaltyFunction.penalFunctionNN(comp1, i1, comp2, i, maxRadius);
+		PenaltyCache.PenaltyTable penalties = penaltyCache.getTable(comp1, t1, comp2, t2, maxRadius);
+		for (int k = penalties.start(i1); k < penalties.end(i1); k++) {
+			int i = penalties.index(k);
+			score = penalties.penalty(k);
 			if (score < min_score) {
 				min_score = score;
 				min_i = i;
 			}
 		}
-		if (min_score > scoreThreshold)
+		if (min_i == -1 || min_score > scoreThreshold)
 			return -1;
 		return min_i;
 	}
@@ -311,9 +410,10 @@ public class NearestNeighbourTracking {
 			if (t < 0 || t >= comp2List.size())
 				break;
 			dt = t - t1 - 1; // for multiplier coefficient
-			for (int i2 = 0; i2 < comp2List.get(t).getComponentsCount(); i2++) {
-				score = (1 + dt * timeDecayCoefficient)
-						* PenaltyFunction.penalFunctionNN(comp1, i1, comp2List.get(t), i2, maxRadius);
+			PenaltyCache.PenaltyTable penalties = penaltyCache.getTable(comp1, t1, comp2List.get(t), t, maxRadius);
+			for (int k = penalties.start(i1); k < penalties.end(i1); k++) {
+				int i2 = penalties.index(k);
+				score = (1 + dt * timeDecayCoefficient) * penalties.penalty(k);
 				if (score > scoreThreshold) {
 					// if (t1 == 4)
 					// System.out.format(
@@ -322,8 +422,9 @@ public class NearestNeighbourTracking {
 					// i1, t1, i2, t, score);
 					continue;
 				} else {
-					if (score < 10)
-						System.out.format("Score of component %d in slice %d, t=%d is %f %n", i1, t1, t, score);
+					if (score < 10 && Trace.isEnabled(Trace.Subsystem.TRACKING, Trace.Level.TRACE))
+						Trace.format(Trace.Subsystem.TRACKING, Trace.Level.TRACE,
+								"Score of component %d in slice %d, t=%d is %f %n", i1, t1, t, score);
 				}
 				if (score < score1) {
 					score2 = score1; // previous minimum is now second-minimum
@@ -359,7 +460,8 @@ public class NearestNeighbourTracking {
 		tracks.printTracksInfo();
 		ImageProcessor ip;
 
-		for (int i = 0; i < tracks.tracksCount(); i++) {
+		// blobs are searched only around the track end, in crops of the next slices
+		for (int i : getTracksByLastSlice()) {
 			tr = tracks.getTrack(i);
 
 			if (tracks.getLength(i) < 2 || tr.isEndedOnMitosis())
@@ -379,100 +481,149 @@ public class NearestNeighbourTracking {
 
 			WhiteBlobsDetection detectionNextSlice = new WhiteBlobsDetection(center.getX(), center.getY(), endSlice + 1, 30,
 					tr.getEndAdjIndex(), false, new ArrayList<Integer>(), 0, null);
-			detectionNextSlice.fillWithBlobCandidates(componentsList.get(endSlice + 1).getInvertedIntensityImage(), 30);
+			detectionNextSlice.fillWithBlobCandidates(componentsList.get(endSlice + 1).getIntensityImage(), true, 30);
 
 			if (detectionNextSlice.isBestBlobValueAboveThreshold(whiteBlobThreshold)) {
 				tr.setEndedOnMitosys();
-				System.out.println("track " + i + " ended on mitosis by bright blob in the next frame");
+				if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+					Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+							"track " + i + " ended on mitosis by bright blob in the next frame");
 				continue;
 			}
 
 			WhiteBlobsDetection detectionNextNextSlice = new WhiteBlobsDetection(center.getX(), center.getY(), endSlice + 2, 30,
 					tr.getEndAdjIndex(), false, new ArrayList<Integer>(), 0, null);
-			detectionNextNextSlice.fillWithBlobCandidates(componentsList.get(endSlice + 2).getInvertedIntensityImage(), 30);
+			detectionNextNextSlice.fillWithBlobCandidates(componentsList.get(endSlice + 2).getIntensityImage(), true,
+					30);
 			
 			if (detectionNextNextSlice.isBestBlobValueAboveThreshold(whiteBlobThreshold)) {
 				tr.setEndedOnMitosys();
-				System.out.println("track " + i + " ended on mitosis by bright blob in the next next frame");
+				if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+					Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+							"track " + i + " ended on mitosis by bright blob in the next next frame");
 			}
 		}
 	}
 
+	/* average intensity around a component of a track, calculated slice by slice */
+	private static class HistogramQuery {
+		int track, position, slice, x, y, radius;
+	}
+
 	public void analyzeTracksForMitosisByAverageIntensity(double mitosisStartIntensityCoefficient) {
 		Track tr;
 		int startAdjIndex, endIndex;
-		int startSlice, endSlice;
 		int currAdjIndex, currSlice, currNode;
-		int startNodeIndex;
 
 		Point center;
 		int x0, y0, x1, y1, radius;
-		float avrgVal;
 		FloatHistogram hist;
 		ArrayList<Float> trackValues = new ArrayList<Float>();
 		tracks.printTracksInfo();
-		ImageProcessor ip;
 
+		// histograms are collected for each slice in track and for the next slice, then
+		// calculated in slice order, so every intensity image is read once
+		ArrayList<HistogramQuery> queries = new ArrayList<HistogramQuery>();
+		int[] valuesCount = new int[tracks.tracksCount()];
 		for (int i = 0; i < tracks.tracksCount(); i++) {
 			tr = tracks.getTrack(i);
 			startAdjIndex = tr.getStartAdjIndex();
 			endIndex = tr.getEndAdjIndex();
 
-			startSlice = cellGraph.getNodeSliceByGlobalIndex(startAdjIndex);
-			startNodeIndex = cellGraph.getNodeIndexByGlobalIndex(startAdjIndex);
-
 			if (cellGraph.getNodeSliceByGlobalIndex(endIndex) > componentsList.size() - 4)
 				continue;
 
 			if (tr.isEndedOnMitosis())
 				continue;
 
-			// get histogram for each slice in track and for the next slice
 			currAdjIndex = startAdjIndex;
 			while (currAdjIndex != -1) {
 				currSlice = cellGraph.getNodeSliceByGlobalIndex(currAdjIndex);
 				currNode = cellGraph.getNodeIndexByGlobalIndex(currAdjIndex);
 
-				ip = componentsList.get(currSlice).getIntensityImage();
 				center = componentsList.get(currSlice).getComponentMassCenter(currNode);
 				x0 = componentsList.get(currSlice).getComponentX0(currNode);
 				x1 = componentsList.get(currSlice).getComponentX1(currNode);
 				y0 = componentsList.get(currSlice).getComponentY0(currNode);
 				y1 = componentsList.get(currSlice).getComponentY1(currNode);
 				radius = Math.max(x1 - x0, y1 - y0) / 2 + 1;
-
-				hist = new FloatHistogram(ip, 0, 1, (int) center.getX(), (int) center.getY(), radius);
-				avrgVal = hist.getAverageValue();
-				trackValues.add(avrgVal);
-				// System.out.format("%f, ", avrgVal);
+				queries.add(newHistogramQuery(i, valuesCount[i]++, currSlice, center, radius));
 
 				currAdjIndex = cellGraph.getFirstChildByGlobalIndex(currAdjIndex);
 
-				if (currAdjIndex == -1) { // calculate last histogram for next slice with same parameters
-					ip = componentsList.get(currSlice + 1).getIntensityImage();
-					hist = new FloatHistogram(ip, 0.0f, 1.0f, (int) center.getX(), (int) center.getY(), radius);
-					avrgVal = hist.getAverageValue();
-					trackValues.add(avrgVal);
-				}
+				if (currAdjIndex == -1) // last histogram for next slice with same parameters
+					queries.add(newHistogramQuery(i, valuesCount[i]++, currSlice + 1, center, radius));
 			}
+		}
+
+		Collections.sort(queries, new Comparator<HistogramQuery>() {
+			@Override
+			public int compare(HistogramQuery q1, HistogramQuery q2) {
+				return Integer.compare(q1.slice, q2.slice);
+			}
+		});
+		float[][] values = new float[tracks.tracksCount()][];
+		for (int i = 0; i < values.length; i++)
+			values[i] = new float[valuesCount[i]];
+		for (HistogramQuery q : queries) {
+			hist = new FloatHistogram(componentsList.get(q.slice).getIntensityImage(), 0, 1, q.x, q.y, q.radius);
+			values[q.track][q.position] = hist.getAverageValue();
+		}
+
+		for (int i = 0; i < tracks.tracksCount(); i++) {
+			if (valuesCount[i] == 0)
+				continue;
+			tr = tracks.getTrack(i);
+			for (int j = 0; j < valuesCount[i]; j++)
+				trackValues.add(values[i][j]);
 
 			// now analyze trackValues
-			System.out.println(
-					"Histogram averages for track starting with slice " + startSlice + " and index " + startNodeIndex);
-			for (int j = 0; j < trackValues.size(); j++) {
-				System.out.format("%f, ", trackValues.get(j));
+			if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG)) {
+				Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+						"Histogram averages for track starting with slice "
+								+ cellGraph.getNodeSliceByGlobalIndex(tr.getStartAdjIndex()) + " and index "
+								+ cellGraph.getNodeIndexByGlobalIndex(tr.getStartAdjIndex()));
+				for (int j = 0; j < trackValues.size(); j++) {
+					Trace.format(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, "%f, ", trackValues.get(j));
+				}
+				Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, "");
 			}
-			System.out.println();
 
 			if (trackValues.size() > 3 && checkEndedOnMitosis(trackValues, (float) mitosisStartIntensityCoefficient)) {
 				tr.setEndedOnMitosys();
-				System.out.println("track " + i + " ended on mitosis by intensity change ");
+				if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+					Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, "track " + i + " ended on mitosis by intensity change ");
 			}
 
 			trackValues.clear();
 		}
 	}
 
+	private static HistogramQuery newHistogramQuery(int track, int position, int slice, Point center, int radius) {
+		HistogramQuery q = new HistogramQuery();
+		q.track = track;
+		q.position = position;
+		q.slice = slice;
+		q.x = (int) center.getX();
+		q.y = (int) center.getY();
+		q.radius = radius;
+		return q;
+	}
+
+	/* track indexes sorted by the last slice, so slice images are read in time order */
+	private Integer[] getTracksByLastSlice() {
+		Integer[] order = new Integer[tracks.tracksCount()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return Integer.compare(tracks.getLastSliceForTrack(i1), tracks.getLastSliceForTrack(i2));
+			}
+		});
+		return order;
+	}
+
 	/*
 	 * Returns true if the last difference in intensity values array is the highest
 	 * through the array, means that the mitosis started
@@ -517,14 +668,20 @@ public class NearestNeighbourTracking {
 				// mitosis slice
 				WhiteBlobsDetection whiteBlob = new WhiteBlobsDetection(center.getX(), center.getY(), endSlice + 1,
 						radius, tr.getEndAdjIndex(), false, new ArrayList<Integer>(), 0, null);
-				System.out.format("WhiteBlobDetection created in t=%d, at (%f,%f), parent adj is %d %n", endSlice + 1,
-						center.getX(), center.getY(), tr.getEndAdjIndex());
+				if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+					Trace.format(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+							"WhiteBlobDetection created in t=%d, at (%f,%f), parent adj is %d %n", endSlice + 1,
+							center.getX(), center.getY(), tr.getEndAdjIndex());
 				whiteBlobsTracking.addWhiteBlobDetection(endSlice + 1, whiteBlob);
 			}
 		}
 
 		// now analyze images and white blobs...
 		trackWhiteBlobs(whiteBlobsTracking, radius, childPenalThreshold);
+
+		// intensity images are not needed for mitosis anymore
+		for (int slice = 0; slice < componentsList.size(); slice++)
+			componentsList.get(slice).releaseIntensityCaches();
 	}
 
 	/*
@@ -540,10 +697,15 @@ public class NearestNeighbourTracking {
 		for (int slice = 0; slice < whiteBlobsTracking.getSlicesCount() - 1; slice++) {
 			String log = String.format("Mitosis tracking, slice %d %n", slice);
 			IJ.log(log);
-			System.out.println();
-			System.out.println("--- Mitosis tracking: slice " + slice);
-			whiteBlobsTracking.fillSliceDetectionsWithUniqueCandidates(slice,
-					componentsList.get(slice).getInvertedIntensityImage());
+			if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.INFO)) {
+				Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.INFO, "");
+				Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.INFO, "--- Mitosis tracking: slice " + slice);
+			}
+			if (whiteBlobsTracking.hasDetections(slice)) {
+				whiteBlobsTracking.fillSliceDetectionsWithUniqueCandidates(slice,
+						componentsList.get(slice).getIntensityScaleSpace());
+				componentsList.get(slice).releaseIntensityCaches();
+			}
 			whiteBlobsTracking.sortBlobsInDetections(slice);
 			// here output candidate components for debugging
 			// if (whiteBlobsTracking.hasDetections(slice)) {
@@ -551,9 +713,9 @@ public class NearestNeighbourTracking {
 			// whiteBlobsTracking.getComponentCandidatesImage(slice));
 			// debugComponents.show();
 			// }
-			System.out.println("--- Mitosis tracking: Filling first Blobs");
+			Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, "--- Mitosis tracking: Filling first Blobs");
 			whiteBlobsTracking.fillFirstBlobs(slice);
-			System.out.println("--- Mitosis tracking: Filling second Blobs");
+			Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, "--- Mitosis tracking: Filling second Blobs");
 			whiteBlobsTracking.fillSecondBlobs(slice, childPenalThreshold);
 
 			// whiteBlobsTracking.fillTrackCandidateIndexes(slice, searchTracksRadius);
@@ -723,7 +885,9 @@ public class NearestNeighbourTracking {
 			if (closestIndex != -1) { // closest component found, add to graph
 				if (comp1.getComponentChildCount(closestIndex) == 1
 						&& comp1.getComponentState(closestIndex) != State.MITOSIS) {
-					System.out.println("component with index " + closestIndex + " discarded by state");
+					if (Trace.isEnabled(Trace.Subsystem.TRACKING, Trace.Level.DEBUG))
+						Trace.log(Trace.Subsystem.TRACKING, Trace.Level.DEBUG,
+								"component with index " + closestIndex + " discarded by state");
 					continue; // if closest parent has 1 child but not mitosys, then don't add
 				}
 				// if closest component in comp1 has 0 children or 1 children
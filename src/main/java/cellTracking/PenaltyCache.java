@@ -0,0 +1,169 @@
+package cellTracking;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/*
+ * cache of PenaltyFunction.penalFunctionNN values between components of two
+ * slices. For a pair of slices and a radius, penalties of all component pairs
+ * closer than the radius are calculated once and kept in primitive arrays,
+ * sorted by component index in both directions (the penalty is symmetric). A
+ * pair is recalculated if components of one of its slices were changed
+ */
+public class PenaltyCache {
+
+	/* penalties from components of one slice to their candidates in the other one */
+	public static class PenaltyTable {
+		private int[] start; // candidates of component i are [start[i], start[i+1])
+		private int[] index;
+		private double[] penalty;
+
+		public int start(int i) {
+			return start[i];
+		}
+
+		public int end(int i) {
+			return start[i + 1];
+		}
+
+		/* candidate component index */
+		public int index(int k) {
+			return index[k];
+		}
+
+		public double penalty(int k) {
+			return penalty[k];
+		}
+
+		/* number of candidates of all components */
+		public int size() {
+			return index.length;
+		}
+	}
+
+	/* both directions for slices tA < tB */
+	private static class SlicePair {
+		ImageComponentsAnalysis compA, compB;
+		int modificationA, modificationB;
+		PenaltyTable forward, backward;
+	}
+
+	private static class Key {
+		int tA, tB;
+		double radius;
+
+		Key(int tA, int tB, double radius) {
+			this.tA = tA;
+			this.tB = tB;
+			this.radius = radius;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return tA == k.tA && tB == k.tB && Double.compare(radius, k.radius) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * tA + tB) + Double.hashCode(radius);
+		}
+	}
+
+	private HashMap<Key, SlicePair> pairs = new HashMap<Key, SlicePair>();
+
+	/*
+	 * returns penalties from components of comp1 (slice t1) to components of comp2
+	 * (slice t2) with mass centers not further than maxRadius
+	 */
+	public PenaltyTable getTable(ImageComponentsAnalysis comp1, int t1, ImageComponentsAnalysis comp2, int t2,
+			double maxRadius) {
+		boolean forward = t1 <= t2;
+		Key key = forward ? new Key(t1, t2, maxRadius) : new Key(t2, t1, maxRadius);
+		ImageComponentsAnalysis compA = forward ? comp1 : comp2;
+		ImageComponentsAnalysis compB = forward ? comp2 : comp1;
+
+		SlicePair pair = pairs.get(key);
+		if (pair == null || pair.compA != compA || pair.compB != compB
+				|| pair.modificationA != compA.getModificationCount()
+				|| pair.modificationB != compB.getModificationCount()) {
+			pair = calculatePair(compA, compB, maxRadius);
+			pairs.put(key, pair);
+		}
+		return forward ? pair.forward : pair.backward;
+	}
+
+	/*
+	 * removes penalties of slice pairs starting before slice t, for linking going
+	 * forward through the slices
+	 */
+	public void removePairsBefore(int t) {
+		Iterator<Key> it = pairs.keySet().iterator();
+		while (it.hasNext())
+			if (it.next().tA < t)
+				it.remove();
+	}
+
+	/* removes all cached penalties */
+	public void clear() {
+		pairs.clear();
+	}
+
+	private static SlicePair calculatePair(ImageComponentsAnalysis compA, ImageComponentsAnalysis compB,
+			double maxRadius) {
+		SlicePair pair = new SlicePair();
+		pair.compA = compA;
+		pair.compB = compB;
+		pair.modificationA = compA.getModificationCount();
+		pair.modificationB = compB.getModificationCount();
+
+		// forward table, candidates are found in the grid of B
+		int nA = compA.getComponentsCount(), nB = compB.getComponentsCount();
+		int[][] candidates = new int[nA][];
+		int total = 0;
+		CentroidGrid gridB = compB.getCentroidGrid();
+		for (int i = 0; i < nA; i++) {
+			candidates[i] = gridB.findIndexesInRadius(compA.getComponentMassCenter(i), maxRadius);
+			total += candidates[i].length;
+		}
+		PenaltyTable forward = newTable(nA, total);
+		int k = 0;
+		for (int i = 0; i < nA; i++) {
+			forward.start[i] = k;
+			for (int j = 0; j < candidates[i].length; j++, k++) {
+				forward.index[k] = candidates[i][j];
+				forward.penalty[k] = PenaltyFunction.penalFunctionNN(compA, i, compB, candidates[i][j], maxRadius);
+			}
+		}
+		forward.start[nA] = k;
+
+		// backward table is the transposed forward one, rows of A go in ascending order
+		PenaltyTable backward = newTable(nB, total);
+		for (k = 0; k < total; k++)
+			backward.start[forward.index[k] + 1]++;
+		for (int j = 0; j < nB; j++)
+			backward.start[j + 1] += backward.start[j];
+		int[] fill = new int[nB];
+		System.arraycopy(backward.start, 0, fill, 0, nB);
+		for (int i = 0; i < nA; i++)
+			for (k = forward.start[i]; k < forward.start[i + 1]; k++) {
+				int b = fill[forward.index[k]]++;
+				backward.index[b] = i;
+				backward.penalty[b] = forward.penalty[k];
+			}
+
+		pair.forward = forward;
+		pair.backward = backward;
+		return pair;
+	}
+
+	private static PenaltyTable newTable(int n, int total) {
+		PenaltyTable table = new PenaltyTable();
+		table.start = new int[n + 1];
+		table.index = new int[total];
+		table.penalty = new double[total];
+		return table;
+	}
+}
@@ -36,7 +36,8 @@ public class PenaltyFunction {
 		p_circ = normVal(circ1, circ2);
 		p_int = normVal(intensity1, intensity2);
 		p_overlap = calculateOverlapScore(comp1, i1, comp2, i2);
-		System.out.println("overlap = " + p_overlap);
+		if (Trace.isEnabled(Trace.Subsystem.TRACKING, Trace.Level.TRACE))
+			Trace.log(Trace.Subsystem.TRACKING, Trace.Level.TRACE, "overlap = " + p_overlap);
 
 		// ! Important to do this since we need penal function, so that less=better,
 		// while SEG is opposite
@@ -91,17 +92,7 @@ public class PenaltyFunction {
 	 * returns index of the component in comp, which mass center is the closest to p
 	 */
 	private static int findClosestPointIndex(Point p, ImageComponentsAnalysis comp, double radius) {
-		int min_i = -1;
-		double min_dist = Double.MAX_VALUE;
-		double dist;
-		for (int i = 0; i < comp.getComponentsCount(); i++) {
-			dist = Point.dist(p, comp.getComponentMassCenter(i));
-			if (dist < radius && dist < min_dist) {
-				min_dist = dist;
-				min_i = i;
-			}
-		}
-		return min_i;
+		return comp.getCentroidGrid().findClosestIndex(p, radius);
 	}
 
 	/* calculates |A & B|/|A | B| where A,B are component masks */
@@ -127,7 +118,8 @@ public class PenaltyFunction {
 
 		union = comp1.getComponentArea(i1) + comp2.getComponentArea(i2); // - cross
 		if (union == 0) {
-			System.out.println("Trying to compute union score of components with 0 areas");
+			Trace.log(Trace.Subsystem.TRACKING, Trace.Level.DEBUG,
+					"Trying to compute union score of components with 0 areas");
 			return 1;
 		}
 
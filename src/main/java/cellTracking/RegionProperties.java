@@ -0,0 +1,271 @@
+package cellTracking;
+
+import java.util.Arrays;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/*
+ * basic properties of all regions in a labeled image, calculated in one raster
+ * pass over the raw pixel arrays. Results are kept as struct-of-arrays buffers,
+ * region i is the i-th distinct label met in raster order (background is a
+ * region too)
+ */
+public class RegionProperties {
+	private static final double sqrt2 = Math.sqrt(2);
+	private static final int maxDenseLabel = 1 << 24; // larger labels are searched in the list
+
+	private int w, h;
+	private int count; // number of regions found
+
+	// per-region buffers, only first "count" entries are valid
+	private int[] label;
+	private int[] area;
+	private int[] xmin, xmax, ymin, ymax;
+	private double[] sumX, sumY; // coordinate sums for mass center
+	private double[] sumIntensity;
+	private double[] perimeter;
+
+	// raw label pixels, only one of them is used
+	private short[] shortLabels;
+	private byte[] byteLabels;
+	private ImageProcessor otherLabels;
+
+	/*
+	 * perimeter of a border pixel with pix4c 4-connected and pixDc diagonal border
+	 * neighbours: average step length, 1 for straight steps and sqrt(2) for diagonal
+	 */
+	static float perimeterContribution(int pix4c, int pixDc) {
+		return (float) ((pix4c + pixDc * sqrt2) / (pix4c + pixDc));
+	}
+
+	/*
+	 * calculates properties of regions in "labels". Intensity image can be null,
+	 * then intensity sums are zero
+	 */
+	public RegionProperties(ImageProcessor labels, ImageProcessor intensity) {
+		w = labels.getWidth();
+		h = labels.getHeight();
+		if (labels instanceof ShortProcessor)
+			shortLabels = (short[]) labels.getPixels();
+		else if (labels instanceof ByteProcessor)
+			byteLabels = (byte[]) labels.getPixels();
+		else
+			otherLabels = labels;
+
+		float[] intensityPixels = null;
+		if (intensity != null)
+			intensityPixels = (float[]) intensity.convertToFloat().getPixels();
+
+		allocate(16);
+		calculate(intensityPixels);
+
+		shortLabels = null;
+		byteLabels = null;
+		otherLabels = null;
+	}
+
+	private void allocate(int capacity) {
+		label = new int[capacity];
+		area = new int[capacity];
+		xmin = new int[capacity];
+		xmax = new int[capacity];
+		ymin = new int[capacity];
+		ymax = new int[capacity];
+		sumX = new double[capacity];
+		sumY = new double[capacity];
+		sumIntensity = new double[capacity];
+		perimeter = new double[capacity];
+	}
+
+	private void grow() {
+		int capacity = 2 * label.length;
+		label = Arrays.copyOf(label, capacity);
+		area = Arrays.copyOf(area, capacity);
+		xmin = Arrays.copyOf(xmin, capacity);
+		xmax = Arrays.copyOf(xmax, capacity);
+		ymin = Arrays.copyOf(ymin, capacity);
+		ymax = Arrays.copyOf(ymax, capacity);
+		sumX = Arrays.copyOf(sumX, capacity);
+		sumY = Arrays.copyOf(sumY, capacity);
+		sumIntensity = Arrays.copyOf(sumIntensity, capacity);
+		perimeter = Arrays.copyOf(perimeter, capacity);
+	}
+
+	private int labelAt(int i) {
+		if (shortLabels != null)
+			return shortLabels[i] & 0xffff;
+		if (byteLabels != null)
+			return byteLabels[i] & 0xff;
+		return otherLabels.get(i);
+	}
+
+	/*
+	 * the raster pass. Border flags of row y+1 are filled before row y is
+	 * accumulated, so perimeter of a pixel can be calculated from the flags of its
+	 * 8 neighbours in the same pass
+	 */
+	private void calculate(float[] intensityPixels) {
+		boolean[] border = new boolean[w * h];
+		int[] denseIndex = new int[256]; // label -> region index + 1, 0 if region was not met yet
+		int index, v, i, pix4c, pixDc;
+
+		fillBorderRow(border, 0);
+		for (int y = 0; y < h; y++) {
+			if (y + 1 < h)
+				fillBorderRow(border, y + 1);
+			for (int x = 0; x < w; x++) {
+				i = y * w + x;
+				v = labelAt(i);
+
+				if (v >= 0 && v < denseIndex.length && denseIndex[v] != 0)
+					index = denseIndex[v] - 1;
+				else
+					index = findRegion(v);
+				if (index == -1) {
+					index = newRegion(v, x, y);
+					if (v >= 0 && v <= maxDenseLabel) {
+						if (v >= denseIndex.length)
+							denseIndex = Arrays.copyOf(denseIndex, Math.max(v + 1, 2 * denseIndex.length));
+						denseIndex[v] = index + 1;
+					}
+				}
+
+				area[index]++;
+				sumX[index] += x;
+				sumY[index] += y;
+				if (intensityPixels != null)
+					sumIntensity[index] += intensityPixels[i];
+
+				if (border[i]) { // calculate perimeter
+					pix4c = 0;
+					pixDc = 0;
+					if (x > 0 && border[i - 1])
+						pix4c++;
+					if (x < w - 1 && border[i + 1])
+						pix4c++;
+					if (y > 0 && border[i - w])
+						pix4c++;
+					if (y < h - 1 && border[i + w])
+						pix4c++;
+					if (x > 0 && y > 0 && border[i - w - 1])
+						pixDc++;
+					if (x > 0 && y < h - 1 && border[i + w - 1])
+						pixDc++;
+					if (x < w - 1 && y > 0 && border[i - w + 1])
+						pixDc++;
+					if (x < w - 1 && y < h - 1 && border[i + w + 1])
+						pixDc++;
+					perimeter[index] += perimeterContribution(pix4c, pixDc);
+				}
+
+				if (xmin[index] > x)
+					xmin[index] = x;
+				if (xmax[index] < x)
+					xmax[index] = x;
+				if (ymax[index] < y)
+					ymax[index] = y;
+			}
+		}
+	}
+
+	/*
+	 * marks pixels of row y, which are on the image border or have 4-connected
+	 * neighbour with other label
+	 */
+	private void fillBorderRow(boolean[] border, int y) {
+		int i = y * w;
+		if (y == 0 || y == h - 1) {
+			for (int x = 0; x < w; x++)
+				border[i + x] = true;
+			return;
+		}
+		border[i] = true;
+		border[i + w - 1] = true;
+		int v;
+		for (int x = 1; x < w - 1; x++) {
+			v = labelAt(i + x);
+			border[i + x] = labelAt(i + x - 1) != v || labelAt(i + x + 1) != v || labelAt(i + x - w) != v
+					|| labelAt(i + x + w) != v;
+		}
+	}
+
+	/* index of region with label v among found regions, -1 if not found */
+	private int findRegion(int v) {
+		if (v >= 0 && v <= maxDenseLabel)
+			return -1; // such labels are always in the dense table
+		for (int k = 0; k < count; k++)
+			if (label[k] == v)
+				return k;
+		return -1;
+	}
+
+	private int newRegion(int v, int x, int y) {
+		if (count == label.length)
+			grow();
+		label[count] = v;
+		xmin[count] = x;
+		xmax[count] = x;
+		ymin[count] = y;
+		ymax[count] = y;
+		return count++;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getLabel(int index) {
+		return label[index];
+	}
+
+	public int getArea(int index) {
+		return area[index];
+	}
+
+	public int getX0(int index) {
+		return xmin[index];
+	}
+
+	public int getX1(int index) {
+		return xmax[index];
+	}
+
+	public int getY0(int index) {
+		return ymin[index];
+	}
+
+	public int getY1(int index) {
+		return ymax[index];
+	}
+
+	public double getSumX(int index) {
+		return sumX[index];
+	}
+
+	public double getSumY(int index) {
+		return sumY[index];
+	}
+
+	public double getSumIntensity(int index) {
+		return sumIntensity[index];
+	}
+
+	public float getPerimeter(int index) {
+		return (float) perimeter[index];
+	}
+
+	/* copies region values into component properties */
+	public void fillComponentProperties(int index, ComponentProperties p) {
+		p.displayIntensity = label[index];
+		p.area = area[index];
+		p.perimeter = (float) perimeter[index];
+		p.xmin = xmin[index];
+		p.xmax = xmax[index];
+		p.ymin = ymin[index];
+		p.ymax = ymax[index];
+		p.avrgIntensity = (float) (sumIntensity[index] / area[index]);
+		p.massCenter.set_xy(sumX[index] / area[index], sumY[index] / area[index]);
+	}
+}
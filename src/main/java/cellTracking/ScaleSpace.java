@@ -0,0 +1,52 @@
+package cellTracking;
+
+import java.util.HashMap;
+
+import ij.process.ImageProcessor;
+
+/*
+ * cache of image hessians for different sigmas. Each hessian is calculated once
+ * and serves both the image and its inverted version (dark and bright blobs),
+ * since hessian of the inverted image is just the negated hessian
+ */
+public class ScaleSpace {
+	private ImageProcessor image;
+	private HashMap<Float, Hessian> hessians; // hessians of the image by sigma
+	private HashMap<Float, Hessian> invertedHessians; // hessians of the inverted image by sigma
+	private Gaussian.Mode gaussianMode;
+
+	public ScaleSpace(ImageProcessor image) {
+		this(image, Gaussian.Mode.FIR);
+	}
+
+	/* gaussianMode sets how the image is smoothed for each sigma */
+	public ScaleSpace(ImageProcessor image, Gaussian.Mode gaussianMode) {
+		this.image = image;
+		this.gaussianMode = gaussianMode;
+		hessians = new HashMap<Float, Hessian>(8);
+		invertedHessians = new HashMap<Float, Hessian>(8);
+	}
+
+	public ImageProcessor getImage() {
+		return image;
+	}
+
+	/* returns hessian for sigma, of the image or of the inverted image */
+	public synchronized Hessian getHessian(float sigma, boolean inverted) {
+		Hessian hessian = hessians.get(sigma);
+		if (hessian == null) {
+			hessian = new Hessian(image, gaussianMode);
+			hessian.calculateHessian(sigma);
+			hessians.put(sigma, hessian);
+		}
+		if (!inverted)
+			return hessian;
+
+		Hessian invertedHessian = invertedHessians.get(sigma);
+		if (invertedHessian == null) {
+			invertedHessian = hessian.inverted();
+			invertedHessians.put(sigma, invertedHessian);
+		}
+		return invertedHessian;
+	}
+}
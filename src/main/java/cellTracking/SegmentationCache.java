@@ -0,0 +1,174 @@
+package cellTracking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * segmentation results of whole stacks saved in a folder, so tracking can be
+ * run again with other tracking parameters without segmenting. A result is
+ * found by a key made of the hash of the input file and all segmentation
+ * parameters, so changing any of them segments again. For every slice the
+ * components image, the intensity image and the components properties are
+ * written, gzipped, in slice order
+ */
+public class SegmentationCache {
+	private static final int magic = 0x53454743; // "SEGC"
+	private static final int version = 1; // increase when the format or the segmentation changes
+
+	private File dir;
+
+	/* the folder is created if it doesn't exist */
+	public SegmentationCache(File dir) throws IOException {
+		this.dir = dir;
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("can't create folder " + dir);
+	}
+
+	/* key of the input file segmented by the engine, reads the whole file */
+	public static String key(File input, SegmentationEngine engine) throws IOException {
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[1 << 20];
+		InputStream in = new FileInputStream(input);
+		try {
+			int n;
+			while ((n = in.read(buffer)) > 0)
+				digest.update(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+		byte[] fileHash = digest.digest();
+
+		digest.update(fileHash);
+		digest.update(parametersString(engine).getBytes(StandardCharsets.UTF_8));
+		byte[] hash = digest.digest();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 16; i++)
+			sb.append(String.format("%02x", hash[i]));
+		return sb.toString();
+	}
+
+	/*
+	 * all public parameter fields of the engine by name, so a new parameter is
+	 * part of the key without changing this
+	 */
+	static String parametersString(SegmentationEngine engine) {
+		Field[] fields = SegmentationEngine.class.getFields();
+		Arrays.sort(fields, new Comparator<Field>() {
+			@Override
+			public int compare(Field a, Field b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		StringBuilder sb = new StringBuilder("version=" + version + "\n");
+		try {
+			for (Field f : fields) {
+				if (Modifier.isStatic(f.getModifiers()))
+					continue;
+				Object value = f.get(engine);
+				String s;
+				if (value instanceof float[])
+					s = Arrays.toString((float[]) value);
+				else if (value instanceof double[])
+					s = Arrays.toString((double[]) value);
+				else if (value instanceof int[])
+					s = Arrays.toString((int[]) value);
+				else
+					s = String.valueOf(value);
+				sb.append(f.getName()).append('=').append(s).append('\n');
+			}
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+		return sb.toString();
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e); // every java platform has SHA-256
+		}
+	}
+
+	public File getFile(String key) {
+		return new File(dir, key + ".seg.gz");
+	}
+
+	public boolean contains(String key) {
+		return getFile(key).isFile();
+	}
+
+	/*
+	 * adds cached slices to the tracking one by one, so a frame store in the
+	 * tracking keeps only a window of them. Returns false if there is no result for
+	 * the key. If the file can't be read it is deleted and the exception is thrown,
+	 * the tracking has to be created again then
+	 */
+	public boolean load(String key, NearestNeighbourTracking tracking) throws IOException {
+		File file = getFile(key);
+		if (!file.isFile())
+			return false;
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 1 << 16), 1 << 16));
+		boolean ok = false;
+		try {
+			if (in.readInt() != magic || in.readInt() != version)
+				throw new IOException("not a segmentation cache file of version " + version);
+			int n = in.readInt();
+			for (int i = 0; i < n; i++)
+				tracking.addComponentsAnalysis(ImageComponentsAnalysis.read(in));
+			ok = true;
+		} finally {
+			in.close();
+			if (!ok)
+				file.delete();
+		}
+		return true;
+	}
+
+	/*
+	 * saves segmented slices, must be called before tracking changes them. The file
+	 * appears under the key only when it is completely written
+	 */
+	public void save(String key, ArrayList<ImageComponentsAnalysis> slices) throws IOException {
+		File file = getFile(key);
+		File tmp = new File(dir, key + ".tmp" + System.nanoTime());
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp), 1 << 16), 1 << 16));
+		boolean ok = false;
+		try {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeInt(slices.size());
+			for (ImageComponentsAnalysis comps : slices)
+				comps.write(out);
+			out.close();
+			file.delete();
+			ok = tmp.renameTo(file);
+			if (!ok)
+				throw new IOException("can't rename " + tmp + " to " + file);
+		} finally {
+			if (!ok) {
+				out.close();
+				tmp.delete();
+			}
+		}
+	}
+}
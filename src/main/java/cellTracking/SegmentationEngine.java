@@ -0,0 +1,198 @@
+package cellTracking;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import ij.IJ;
+import ij.ImageStack;
+import ij.plugin.filter.BackgroundSubtracter;
+import ij.process.ImageProcessor;
+import inra.ijpb.morphology.Strel;
+import inra.ijpb.morphology.Morphology.Operation;
+import inra.ijpb.morphology.Strel.Shape;
+import inra.ijpb.watershed.MarkerControlledWatershedTransform2D;
+
+/*
+ * segmentation of Cell_Tracker: the plugin runs the steps below slice by slice,
+ * headless processing segments the whole stack at once. Frames are processed in
+ * two phases: the expensive per-frame part (filtering, background subtraction,
+ * blob detection, gradient) runs in parallel, while marker merging with the
+ * previous slice components, watershed and components filtering run in slice
+ * order, since markers of a slice depend on the previous slice result
+ */
+public class SegmentationEngine {
+	/* parameters, same meaning and defaults as in Cell_Tracker, gaussianSigma 0 skips the filter */
+	public double gaussianSigma = 2;
+	public int rollingBallRadius = 20;
+	public int topHatRadius = 20;
+	public double gradientSigma = 0.80;
+	public double heightTolerance = 0.01;
+	public double heightToleranceBright = 0.20;
+	public int maximumNumberOfBlobs = 60;
+	public int dilationRadius = 1;
+	public float blobMergeThreshold = 0.32f;
+	public int minArea = 100;
+	public int maxArea = 1400;
+	public float minCircularity = 0.55f;
+	public float maxCircularity = 1.0f;
+	/* "Filter components" of the dialog, if false components are not filtered */
+	public boolean filterComponents = true;
+	public float[] sigmas = { 6, 9, 12, 16, 32 };
+	public float[] sigmasBright = { 4, 7, 10, 15, 20 };
+	/* smoothing for blob detection hessians, recursive one doesn't depend on sigma */
+	public Gaussian.Mode hessianGaussianMode = Gaussian.Mode.FIR;
+
+	private int blobDetection_x_radius = 3;
+	private int blobDetection_y_radius = 3;
+
+	/* results of the parallel phase for one frame */
+	public static class FrameMarkers {
+		ImageProcessor intensityImg; // preprocessed frame, for components average intensity
+		ImageProcessor watershedImage; // image used for merging markers in the same region
+		ImageProcessor gradientImage; // image to flood
+		ImageProcessor marksDark, marksBright;
+	}
+
+	/*
+	 * segments all slices of the stack using "parallelism" threads and returns
+	 * components for every slice, in slice order
+	 */
+	public ArrayList<ImageComponentsAnalysis> segmentStack(ImageStack stack, int parallelism) throws Exception {
+		ArrayList<ImageComponentsAnalysis> result = new ArrayList<ImageComponentsAnalysis>(stack.getSize());
+		segmentStack(stack, parallelism, result, null);
+		return result;
+	}
+
+	/*
+	 * segments the stack and adds components of every slice to the tracking as soon
+	 * as the slice is ready, so with a frame store in the tracking only a window of
+	 * slices is kept in memory
+	 */
+	public void segmentStack(ImageStack stack, int parallelism, NearestNeighbourTracking tracking) throws Exception {
+		segmentStack(stack, parallelism, null, tracking);
+	}
+
+	private void segmentStack(ImageStack stack, int parallelism, ArrayList<ImageComponentsAnalysis> result,
+			NearestNeighbourTracking tracking) throws Exception {
+		int n = stack.getSize();
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		// only a window of frames is submitted ahead, so intermediate images of the
+		// whole stack are not kept in memory
+		int window = 2 * pool.getParallelism();
+		ArrayList<Future<FrameMarkers>> futures = new ArrayList<Future<FrameMarkers>>(n);
+		try {
+			ImageComponentsAnalysis prev = null;
+			for (int i = 0; i < n; i++) {
+				while (futures.size() < n && futures.size() <= i + window) {
+					// frames are read here, virtual stacks can't be read from several threads
+					final ImageProcessor frame = stack.getProcessor(futures.size() + 1);
+					futures.add(pool.submit(new Callable<FrameMarkers>() {
+						@Override
+						public FrameMarkers call() {
+							return detectMarkers(frame);
+						}
+					}));
+				}
+				FrameMarkers frame = futures.get(i).get();
+				futures.set(i, null);
+				prev = segmentByMarkers(frame, prev);
+				if (tracking != null)
+					tracking.addComponentsAnalysis(prev);
+				else
+					result.add(prev);
+				IJ.showProgress(i + 1, n);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/* gaussian filter and background subtraction, the result is normalized to [0,1] */
+	public ImageProcessor preprocess(ImageProcessor original) {
+		ImageProcessor ip = original.duplicate();
+		if (gaussianSigma > 0)
+			new Gaussian().GaussianBlur(ip, (float) gaussianSigma);
+		if (rollingBallRadius > 0)
+			new BackgroundSubtracter().rollingBallBackground(ip, rollingBallRadius, false, false, false, true, false);
+		ImageFunctions.normalize(ip, 0, 1);
+		return ip;
+	}
+
+	/*
+	 * the parallel phase: preprocessing and blob detection for one frame. Doesn't
+	 * depend on other frames
+	 */
+	public FrameMarkers detectMarkers(ImageProcessor frame) {
+		ImageProcessor original = frame.convertToFloatProcessor();
+		ImageProcessor ip = preprocess(original);
+		ImageProcessor cellMask = ImageFunctions.getWhiteObjectsMask(original, 1, 15);
+
+		FrameMarkers f = new FrameMarkers();
+		ImageProcessor watershedImage = ip.duplicate();
+		f.intensityImg = ip.duplicate();
+
+		if (topHatRadius > 0)
+			watershedImage = ImageFunctions.operationMorph(watershedImage, Operation.TOPHAT, Strel.Shape.DISK,
+					topHatRadius);
+		ImageFunctions.normalize(watershedImage, 0, 1);
+		ImageFunctions.normalize(ip, 0, 1);
+
+		ScaleSpace scaleSpace = new ScaleSpace(ip, hessianGaussianMode);
+		BlobDetector blobs = new BlobDetector(scaleSpace, null, sigmas, false);
+		BlobDetector brightBlobs = new BlobDetector(scaleSpace, ComponentMask.fromImage(cellMask, -1), sigmasBright,
+				true);
+
+		f.marksDark = blobs.findBlobsByLocalMaximaAsImage((float) heightTolerance, true, true, maximumNumberOfBlobs,
+				blobDetection_x_radius, blobDetection_y_radius, true);
+		f.marksBright = brightBlobs.findBlobsByLocalMaximaAsImage((float) heightToleranceBright, true, true,
+				maximumNumberOfBlobs / 4, blobDetection_x_radius, blobDetection_y_radius, false);
+
+		ImageProcessor closingImage = ImageFunctions.operationMorph(ip, Operation.CLOSING, Shape.DISK, 20);
+		ImageProcessorCalculator.sub(watershedImage, closingImage);
+		ImageFunctions.normalize(watershedImage, 0, 1);
+		f.watershedImage = watershedImage;
+
+		f.gradientImage = watershedImage.duplicate();
+		if (gradientSigma > 0)
+			new Gaussian().GradientMagnitudeGaussian(f.gradientImage, (float) gradientSigma);
+		return f;
+	}
+
+	/*
+	 * the ordered phase: merges markers with components of the previous slice
+	 * ("prev" can be null), floods the gradient and filters the components if
+	 * "filterComponents" is set
+	 */
+	public ImageComponentsAnalysis segmentByMarkers(FrameMarkers f, ImageComponentsAnalysis prev) {
+		return floodMarkers(f, mergeMarkers(f, prev));
+	}
+
+	/*
+	 * dark blob markers merged with components of the previous slice ("prev" can
+	 * be null) and in the same region, combined with bright blob markers
+	 */
+	public ImageProcessor mergeMarkers(FrameMarkers f, ImageComponentsAnalysis prev) {
+		ImageProcessor marks = f.marksDark;
+		ImageFunctions.mergeMarkers(marks, prev, dilationRadius);
+		if (blobMergeThreshold > 0)
+			marks = ImageFunctions.mergeBinaryMarkersInTheSameRegion(f.watershedImage, marks, 35, blobMergeThreshold);
+		ImageFunctions.addMarkers(marks, f.marksBright);
+		return marks;
+	}
+
+	/* watershed from the merged markers, components are filtered if "filterComponents" is set */
+	public ImageComponentsAnalysis floodMarkers(FrameMarkers f, ImageProcessor marks) {
+		ImageFunctions.LabelMarker(marks);
+		MarkerControlledWatershedTransform2D watershed = new MarkerControlledWatershedTransform2D(f.gradientImage,
+				marks, null, 4);
+		ImageProcessor ip = watershed.applyWithPriorityQueue();
+
+		ImageComponentsAnalysis compAnalisys = new ImageComponentsAnalysis(ip, f.intensityImg, true);
+		compAnalisys.setComponentsBrightBlobStateByMarks(f.marksBright);
+		if (filterComponents)
+			compAnalisys.filterComponents(minArea, maxArea, minCircularity, maxCircularity, 0, 1000, true);
+		return compAnalisys;
+	}
+}
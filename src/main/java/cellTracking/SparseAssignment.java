@@ -0,0 +1,223 @@
+package cellTracking;
+
+import java.util.Arrays;
+
+/*
+ * minimum cost assignment on a sparse cost matrix. Entries of row i are
+ * cols[start[i] .. start[i+1]) with costs cost[..], missing entries can't be
+ * assigned. Rows are assigned one by one by the shortest augmenting path
+ * (Jonker-Volgenant), which is found by Dijkstra over existing entries with a
+ * binary heap, so one augmentation takes O(E log V)
+ */
+public class SparseAssignment {
+	private int n;
+	private int[] start, cols;
+	private double[] cost;
+
+	private int[] colOfRow, rowOfCol;
+	private double[] v; // column prices
+
+	/* Dijkstra state, "stamp" tells which entries belong to the current search */
+	private double[] dist;
+	private int[] pred; // row from which the column was reached
+	private int[] reached, scanned;
+	private int stamp = 0;
+	private int[] scannedList;
+
+	private double[] heapKey;
+	private int[] heapCol;
+	private int heapSize;
+
+	private SparseAssignment(int n, int[] start, int[] cols, double[] cost) {
+		this.n = n;
+		this.start = start;
+		this.cols = cols;
+		this.cost = cost;
+		colOfRow = new int[n];
+		rowOfCol = new int[n];
+		Arrays.fill(colOfRow, -1);
+		Arrays.fill(rowOfCol, -1);
+		v = new double[n];
+		dist = new double[n];
+		pred = new int[n];
+		reached = new int[n];
+		scanned = new int[n];
+		scannedList = new int[n];
+		heapKey = new double[16];
+		heapCol = new int[16];
+	}
+
+	/*
+	 * solves square n x n problem. Returns column of every row, or null if there is
+	 * no assignment using only existing entries
+	 */
+	public static int[] solve(int n, int[] start, int[] cols, double[] cost) {
+		SparseAssignment lap = new SparseAssignment(n, start, cols, cost);
+		for (int i = 0; i < n; i++)
+			if (!lap.augment(i))
+				return null;
+		return lap.colOfRow;
+	}
+
+	/*
+	 * links nRows objects with nCols objects (rectangular sparse matrix). Every row
+	 * can stay unlinked for deathCost and every column for birthCost: the matrix is
+	 * extended with dummy rows and columns, so the assignment always exists.
+	 * Returns linked column of every row or -1
+	 */
+	public static int[] link(int nRows, int nCols, int[] start, int[] cols, double[] cost, double deathCost,
+			double birthCost) {
+		int n = nRows + nCols;
+		int entries = start[nRows];
+		int[] eStart = new int[n + 1];
+		int[] eCols = new int[2 * entries + n];
+		double[] eCost = new double[2 * entries + n];
+
+		// transposed entries, dummy row of column j links dummy columns of rows linked to j
+		int[] tStart = new int[nCols + 1];
+		for (int k = 0; k < entries; k++)
+			tStart[cols[k] + 1]++;
+		for (int j = 0; j < nCols; j++)
+			tStart[j + 1] += tStart[j];
+		int[] tRows = new int[entries];
+		int[] fill = Arrays.copyOf(tStart, nCols);
+		for (int i = 0; i < nRows; i++)
+			for (int k = start[i]; k < start[i + 1]; k++)
+				tRows[fill[cols[k]]++] = i;
+
+		int e = 0;
+		for (int i = 0; i < nRows; i++) { // real row: its entries and own dummy column
+			eStart[i] = e;
+			for (int k = start[i]; k < start[i + 1]; k++, e++) {
+				eCols[e] = cols[k];
+				eCost[e] = cost[k];
+			}
+			eCols[e] = nCols + i;
+			eCost[e++] = deathCost;
+		}
+		for (int j = 0; j < nCols; j++) { // dummy row: own real column and dummy-dummy entries
+			eStart[nRows + j] = e;
+			eCols[e] = j;
+			eCost[e++] = birthCost;
+			for (int k = tStart[j]; k < tStart[j + 1]; k++, e++) {
+				eCols[e] = nCols + tRows[k];
+				eCost[e] = 0;
+			}
+		}
+		eStart[n] = e;
+
+		int[] assigned = solve(n, eStart, eCols, eCost);
+		int[] result = new int[nRows];
+		for (int i = 0; i < nRows; i++)
+			result[i] = assigned != null && assigned[i] < nCols ? assigned[i] : -1;
+		return result;
+	}
+
+	/* finds the shortest augmenting path from the free row and assigns along it */
+	private boolean augment(int freeRow) {
+		stamp++;
+		heapSize = 0;
+		int nScanned = 0;
+		relaxRow(freeRow, 0);
+
+		int sink = -1;
+		double minDist = 0;
+		while (heapSize > 0) {
+			int j = heapCol[0];
+			double d = heapKey[0];
+			pop();
+			if (scanned[j] == stamp || d > dist[j])
+				continue; // outdated heap entry
+			scanned[j] = stamp;
+			scannedList[nScanned++] = j;
+			if (rowOfCol[j] == -1) {
+				sink = j;
+				minDist = d;
+				break;
+			}
+			int i = rowOfCol[j];
+			// reduced cost of the assigned entry is the minimum of the row, so steps are not negative
+			relaxRow(i, d - (costOf(i, j) - v[j]));
+		}
+		if (sink == -1)
+			return false;
+
+		for (int k = 0; k < nScanned; k++) { // update prices of scanned columns
+			int j = scannedList[k];
+			v[j] += dist[j] - minDist;
+		}
+
+		int j = sink, i, next;
+		do { // augment
+			i = pred[j];
+			rowOfCol[j] = i;
+			next = colOfRow[i];
+			colOfRow[i] = j;
+			j = next;
+		} while (i != freeRow);
+		return true;
+	}
+
+	/* relaxes all entries of the row, "offset" is the distance to the row */
+	private void relaxRow(int i, double offset) {
+		for (int k = start[i]; k < start[i + 1]; k++) {
+			int j = cols[k];
+			if (scanned[j] == stamp)
+				continue;
+			double d = offset + cost[k] - v[j];
+			if (reached[j] != stamp || d < dist[j]) {
+				reached[j] = stamp;
+				dist[j] = d;
+				pred[j] = i;
+				push(d, j);
+			}
+		}
+	}
+
+	private double costOf(int i, int j) {
+		for (int k = start[i]; k < start[i + 1]; k++)
+			if (cols[k] == j)
+				return cost[k];
+		return Double.MAX_VALUE;
+	}
+
+	private void push(double key, int col) {
+		if (heapSize == heapKey.length) {
+			heapKey = Arrays.copyOf(heapKey, 2 * heapSize);
+			heapCol = Arrays.copyOf(heapCol, 2 * heapSize);
+		}
+		int k = heapSize++;
+		while (k > 0) {
+			int parent = (k - 1) / 2;
+			if (!less(key, col, heapKey[parent], heapCol[parent]))
+				break;
+			heapKey[k] = heapKey[parent];
+			heapCol[k] = heapCol[parent];
+			k = parent;
+		}
+		heapKey[k] = key;
+		heapCol[k] = col;
+	}
+
+	private void pop() {
+		double key = heapKey[--heapSize];
+		int col = heapCol[heapSize];
+		int k = 0, child;
+		while ((child = 2 * k + 1) < heapSize) {
+			if (child + 1 < heapSize && less(heapKey[child + 1], heapCol[child + 1], heapKey[child], heapCol[child]))
+				child++;
+			if (!less(heapKey[child], heapCol[child], key, col))
+				break;
+			heapKey[k] = heapKey[child];
+			heapCol[k] = heapCol[child];
+			k = child;
+		}
+		heapKey[k] = key;
+		heapCol[k] = col;
+	}
+
+	/* equal distances are taken by column index, so the result doesn't depend on the heap */
+	private static boolean less(double key1, int col1, double key2, int col2) {
+		return key1 < key2 || (key1 == key2 && col1 < col2);
+	}
+}
@@ -0,0 +1,88 @@
+package cellTracking;
+
+import java.io.PrintStream;
+
+/*
+ * debug output of the tracking pipeline with a level per subsystem. Messages
+ * above the level of their subsystem are dropped. In loops the check should be
+ * done first (if (Trace.isEnabled(...)) Trace.format(...)), so nothing is
+ * formatted or boxed when the output is off; a Message builds its text only if
+ * it is printed. Levels can be set with system properties, e.g.
+ * -Dtrace.tracking=DEBUG or -Dtrace.all=TRACE
+ */
+public class Trace {
+
+	public enum Level {
+		OFF, // nothing
+		INFO, // progress of the pipeline stages
+		DEBUG, // per component, track or detection
+		TRACE // per pair of components, inner loops
+	}
+
+	public enum Subsystem {
+		SEGMENTATION, TRACKING, MITOSIS, GRAPH
+	}
+
+	/* lazily built message */
+	public interface Message {
+		String get();
+	}
+
+	private static final Level[] levels = new Level[Subsystem.values().length];
+	private static PrintStream out = System.out;
+
+	static {
+		Level all = parseLevel(System.getProperty("trace.all"), Level.INFO);
+		for (Subsystem s : Subsystem.values())
+			levels[s.ordinal()] = parseLevel(System.getProperty("trace." + s.name().toLowerCase()), all);
+	}
+
+	private static Level parseLevel(String name, Level defaultLevel) {
+		if (name == null)
+			return defaultLevel;
+		try {
+			return Level.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.out.println("unknown trace level " + name);
+			return defaultLevel;
+		}
+	}
+
+	public static boolean isEnabled(Subsystem subsystem, Level level) {
+		return level.compareTo(levels[subsystem.ordinal()]) <= 0 && level != Level.OFF;
+	}
+
+	public static void setLevel(Subsystem subsystem, Level level) {
+		levels[subsystem.ordinal()] = level;
+	}
+
+	public static void setLevel(Level level) {
+		for (Subsystem s : Subsystem.values())
+			levels[s.ordinal()] = level;
+	}
+
+	public static Level getLevel(Subsystem subsystem) {
+		return levels[subsystem.ordinal()];
+	}
+
+	/* where messages go, System.out by default */
+	public static void setOutput(PrintStream stream) {
+		out = stream;
+	}
+
+	public static void log(Subsystem subsystem, Level level, String message) {
+		if (isEnabled(subsystem, level))
+			out.println(message);
+	}
+
+	public static void log(Subsystem subsystem, Level level, Message message) {
+		if (isEnabled(subsystem, level))
+			out.println(message.get());
+	}
+
+	/* String.format message, without line end added */
+	public static void format(Subsystem subsystem, Level level, String format, Object... args) {
+		if (isEnabled(subsystem, level))
+			out.format(format, args);
+	}
+}
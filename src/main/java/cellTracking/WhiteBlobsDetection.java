@@ -3,7 +3,7 @@ package cellTracking;
 import java.util.ArrayList;
 import java.util.Collections;
 
-import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import point.Point;
 import point.PointWithScale;
@@ -260,20 +260,50 @@ public class WhiteBlobsDetection {
 			Collections.swap(blobCenters, i, best_index);
 		}
 		
-		System.out.format("Sorted blobs for detection at slice %d, parent Adj %d", slice, parentAdjIndex);
-		System.out.println();
-		System.out.println(blobCenters);
+		if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG)) {
+			Trace.format(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+					"Sorted blobs for detection at slice %d, parent Adj %d", slice, parentAdjIndex);
+			Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, "");
+			Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, String.valueOf(blobCenters));
+		}
 	}
 	
 	public void fillWithBlobCandidates(ImageProcessor image, int searchRadius) {
-		ImageProcessor mask = getDetectionMaskImage(image.getWidth(), image.getHeight(), searchRadius);
+		fillWithBlobCandidates(image, false, searchRadius);
+	}
+
+	/*
+	 * searches blobs in the square with half-side searchRadius around the center.
+	 * If "inverted", blobs are searched in the inverted image. Hessians are taken
+	 * only for a crop around the square, padded by 3 sigma of the largest scale (the
+	 * gaussian kernel radius) and 3 pixels for second differences and the maxima
+	 * window, so the result is the same as for the whole image
+	 */
+	public void fillWithBlobCandidates(ImageProcessor image, boolean inverted, int searchRadius) {
 		float[] sigmas = { 7, 10, 15, 20 };
-		BlobDetector detector = new BlobDetector(image, mask, sigmas);
-		// search some blobs and get the closest one to the center
-		ArrayList<PointWithScale> points = detector.findBlobsByLocalMaximaAsPoints(0.001f, true,
-				getBlobSearchCount(), 2, 2, true);
-		System.out.println(slice + ": Filling detection with blob candidates");
-		System.out.println(points);
+		int xc = (int) center.getX();
+		int yc = (int) center.getY();
+		int pad = searchRadius + (int) Math.ceil(3 * sigmas[sigmas.length - 1]) + 3;
+		int x0 = Math.max(0, xc - pad), y0 = Math.max(0, yc - pad);
+		int x1 = Math.min(image.getWidth() - 1, xc + pad), y1 = Math.min(image.getHeight() - 1, yc + pad);
+		ArrayList<PointWithScale> points = new ArrayList<PointWithScale>();
+		if (x0 <= x1 && y0 <= y1) {
+			FloatProcessor crop = new FloatProcessor(x1 - x0 + 1, y1 - y0 + 1);
+			for (int y = y0; y <= y1; y++)
+				for (int x = x0; x <= x1; x++)
+					crop.setf(x - x0, y - y0, image.getf(x, y));
+			ComponentMask mask = ComponentMask.rectangle(xc - searchRadius - x0, yc - searchRadius - y0,
+					xc + searchRadius - x0, yc + searchRadius - y0, crop.getWidth(), crop.getHeight());
+			BlobDetector detector = new BlobDetector(new ScaleSpace(crop), mask, sigmas, inverted);
+			// search some blobs and get the closest one to the center
+			for (PointWithScale p : detector.findBlobsByLocalMaximaAsPoints(0.001f, true, getBlobSearchCount(), 2, 2,
+					true))
+				points.add(new PointWithScale(p.point.getX() + x0, p.point.getY() + y0, p.sigma, p.value));
+		}
+		if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG)) {
+			Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, slice + ": Filling detection with blob candidates");
+			Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, String.valueOf(points));
+		}
 		
 		PointWithScale p_i, bestPoint;
 		double val;
@@ -301,26 +331,19 @@ public class WhiteBlobsDetection {
 		}
 	}
 
-	public ImageProcessor getBlobMaskImage(int width, int height, int blobIndex, int intensity) {
-		ImageProcessor mask = new ByteProcessor(width, height);
+	/* filled circle of the blob (radius = sqrt(2)*sigma) in the image of the given size */
+	public ComponentMask getBlobMaskImage(int width, int height, int blobIndex) {
 		PointWithScale pws = blobCenters.get(blobIndex);
 		//System.out.println("sigma = " + pws.sigma);
-		ImageFunctions.drawCircle(mask, (float) pws.sigma * 1.41f, (int) pws.point.getX(), (int) pws.point.getY(),
-				intensity, false, true);
-		return mask;
+		return ComponentMask.circle((float) pws.sigma * 1.41f, (int) pws.point.getX(), (int) pws.point.getY(), width,
+				height);
 	}
 
-	public ImageProcessor getDetectionMaskImage(int width, int height, int radius) {
-		ImageProcessor mask = new ByteProcessor(width, height);
+	/* square with half-side "radius" around the detection center */
+	public ComponentMask getDetectionMaskImage(int width, int height, int radius) {
 		int xc = (int) center.getX();
 		int yc = (int) center.getY();
-		for (int y = 0; y < height; y++)
-			for (int x = 0; x < width; x++) {
-				if (Math.abs(x - xc) <= radius && Math.abs(y - yc) <= radius) {
-					mask.set(x, y, 255);
-				}
-			}
-		return mask;
+		return ComponentMask.rectangle(xc - radius, yc - radius, xc + radius, yc + radius, width, height);
 	}
 	
 
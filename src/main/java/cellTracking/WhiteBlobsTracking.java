@@ -65,6 +65,13 @@ public class WhiteBlobsTracking {
 		whiteBlobs.distributeBlobsBetweenDetections(detectionsLists.get(slice));
 	}
 
+	/* same, with blobs searched in the inverted image of the scale space */
+	public void fillSliceDetectionsWithUniqueCandidates(int slice, ScaleSpace scaleSpace) {
+		WhiteBlobsComponents whiteBlobs = new WhiteBlobsComponents(scaleSpace, true,
+				5 * detectionsLists.get(slice).size());
+		whiteBlobs.distributeBlobsBetweenDetections(detectionsLists.get(slice));
+	}
+
 	/* fills WhiteBlobsDetection with several white blobs for further analysis */
 	private void fillWhiteBlobsDetectionWithBlobCandidates(int slice, int index, ImageProcessor image,
 			int searchRadius) {
@@ -72,10 +79,13 @@ public class WhiteBlobsTracking {
 		detection.fillWithBlobCandidates(image, searchRadius);
 		
 		// debug info, check if sorted
-		System.out.println("Printing sorted points, detected in slice " + slice + ", detection " + index);
-		for (int i = 0; i < detection.getBlobCentersCount(); i++) {
-			System.out.format("i=%d, blobValue = %f %n", i,
-					detection.getBlobCenter(i).sortValue(detection.getAreaCenter(), detection.getRadius()));
+		if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG)) {
+			Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+					"Printing sorted points, detected in slice " + slice + ", detection " + index);
+			for (int i = 0; i < detection.getBlobCentersCount(); i++) {
+				Trace.format(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, "i=%d, blobValue = %f %n", i,
+						detection.getBlobCenter(i).sortValue(detection.getAreaCenter(), detection.getRadius()));
+			}
 		}
 	}
 	
@@ -92,22 +102,23 @@ public class WhiteBlobsTracking {
 		PointWithScale p;
 		Node v;
 		int index;
-		ImageProcessor componentMask;
+		ComponentMask componentMask;
 		float avrgIntensity;
-		int intensityInMask = 255;
 		for (int i = 0; i < detections.size(); i++) {
 			detection = detections.get(i);
 			for (int j = 0; j < detection.getBlobCentersCount(); j++) { // start from index 0, since its the closest one
 				p = detection.getBlobCenter(j);
-				System.out.format(" *** First blob fill: Slice %d, Detection index %d, blob index %d %n", slice, i, j);
+				if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+					Trace.format(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+							" *** First blob fill: Slice %d, Detection index %d, blob index %d %n", slice, i, j);
 				if (!isPointInOtherDetections(p.point, slice)) { // search for the closest blob
 
 					// draw component in components image (as filled circle, radius = sqrt(2)*sigma)
 					componentMask = detection.getBlobMaskImage(componentsList.get(slice).getWidth(),
-							componentsList.get(slice).getHeight(), j, intensityInMask);
+							componentsList.get(slice).getHeight(), j);
 					// ImagePlus imp = new ImagePlus("component mask", componentMask);
 					// imp.show();
-					index = componentsList.get(slice).addComponent(componentMask, intensityInMask, State.MITOSIS);
+					index = componentsList.get(slice).addComponent(componentMask, State.MITOSIS);
 					detection.setFirstBlobComponentIndex(index);
 
 					// connect to graph
@@ -123,13 +134,16 @@ public class WhiteBlobsTracking {
 						componentsList.get(slice).setComponentState(index, State.MITOSIS);
 						componentsList.get(slice).setComponentHasParent(index);
 
-						System.out.format("First blob's (%f, %f) avrg intensity is %f, blob val is %f %n",
-								p.point.getX(), p.point.getY(), avrgIntensity, p.value);
+						if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+							Trace.format(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+									"First blob's (%f, %f) avrg intensity is %f, blob val is %f %n",
+									p.point.getX(), p.point.getY(), avrgIntensity, p.value);
 
 						// if intensity of the first blob severely dropped compared to its parent, then
 						// we should search for child tracks
 						if (avrgIntensity < detection.getParentFirstBlobAverageIntensity() * 0.65) {
-							System.out.println("White blob tracking terminated due to intensity change");
+							Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+									"White blob tracking terminated due to intensity change");
 							// look for child tracks
 							connectFirstBlobToTwoTracks(detection, 40, 4, 6);
 
@@ -145,19 +159,22 @@ public class WhiteBlobsTracking {
 									detection.getRadius(), g.getNodeIndex(v), true,
 									detection.getCandidateTrackIndexes(), avrgIntensity, detection);
 							addWhiteBlobDetection(slice + 1, nextDetection);
-							System.out.println("Detection for slice " + (slice + 1)
-									+ " created, after second detection not needed");
+							if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+								Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, "Detection for slice " + (slice + 1)
+										+ " created, after second detection not needed");
 						}
 						break;
 					} else {
-						System.out.println("Component wasn't added during first blob fill");
+						Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+								"Component wasn't added during first blob fill");
 						// terminate track
 					}
 				}
 			}
 			// here because there were no blobs added to the detections. Better just find 2 tracks
 			if (detection.getBlobCentersCount() == 0) {
-				System.out.println("White blob tracking terminated, blobs not found. Connecting parent blob with 2 tracks");
+				Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+						"White blob tracking terminated, blobs not found. Connecting parent blob with 2 tracks");
 				// look for child tracks
 				if (detection.getParentDetection() != null) {
 					connectFirstBlobToTwoTracks(detection.getParentDetection(), 40, 4, 6);
@@ -179,8 +196,7 @@ public class WhiteBlobsTracking {
 		Node v;
 		int index1, index2, prevSlice, prevIndex;
 		double x, y;
-		ImageProcessor componentMask;
-		int intensityInMask = 255;
+		ComponentMask componentMask;
 		PointWithScale p;
 		Point parentCenter;
 		float parentAvrgIntensity, thisFirstBlobAvrgIntensity;
@@ -203,7 +219,8 @@ public class WhiteBlobsTracking {
 						thisFirstBlobAvrgIntensity, detection);
 
 				addWhiteBlobDetection(slice + 1, nextDetection);
-				System.out.println("Detection added during second blob fill, only 1 white blob candidate");
+				Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+						"Detection added during second blob fill, only 1 white blob candidate");
 				continue; // go to next detection
 			}
 			if (detection.isFirstDetected() && detection.isSecondDetectionNeeded()) {
@@ -213,18 +230,20 @@ public class WhiteBlobsTracking {
 						continue;
 					// draw component in components image (as filled circle, radius = sqrt(2)*sigma)
 					componentMask = detection.getBlobMaskImage(componentsList.get(slice).getWidth(),
-							componentsList.get(slice).getHeight(), j, intensityInMask);
+							componentsList.get(slice).getHeight(), j);
 					// ImagePlus imp = new ImagePlus("component mask", componentMask);
 					// imp.show();
 					index1 = detection.getFirstBlobComponentIndex();
-					index2 = componentsList.get(slice).addComponent(componentMask, intensityInMask, State.MITOSIS);
+					index2 = componentsList.get(slice).addComponent(componentMask, State.MITOSIS);
 
 					if (index2 != -1) { // component was succesfully added
 
 						// checking if childs
 						prevIndex = g.getNodeIndexByGlobalIndex(detection.getParentAdjIndex());
 						prevSlice = g.getNodeSliceByGlobalIndex(detection.getParentAdjIndex());
-						System.out.format("Checking for child in slice %d %n", slice);
+						if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+							Trace.format(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+									"Checking for child in slice %d %n", slice);
 						parentCenter = componentsList.get(prevSlice).getComponentMassCenter(prevIndex);
 						parentAvrgIntensity = componentsList.get(prevSlice).getComponentAvrgIntensity(prevIndex);
 
@@ -260,15 +279,18 @@ public class WhiteBlobsTracking {
 									detection.getFirstBlobNodeIndex(), true, detection.getCandidateTrackIndexes(),
 									thisFirstBlobAvrgIntensity, detection);
 
-							System.out.format(
-									"Child not detected, creating detection with parent adj %d at (%f, %f) %n",
-									detection.getFirstBlobNodeIndex(), x, y);
+							if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+								Trace.format(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, 
+										"Child not detected, creating detection with parent adj %d at (%f, %f) %n",
+										detection.getFirstBlobNodeIndex(), x, y);
 							addWhiteBlobDetection(slice + 1, nextDetection);
 							break;
 						}
 					} else {
-						System.out.println("White blob component wasn't added at slice during second blob fill " + slice
-								+ ", adding detection to next slice");
+						if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+							Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+									"White blob component wasn't added at slice during second blob fill " + slice
+									+ ", adding detection to next slice");
 						// connectFirstBlobToTwoTracks(detection, 30, 0, 6);
 						thisFirstBlobAvrgIntensity = componentsList.get(slice).getComponentAvrgIntensity(index1);
 
@@ -280,8 +302,10 @@ public class WhiteBlobsTracking {
 								detection.getFirstBlobNodeIndex(), true, detection.getCandidateTrackIndexes(),
 								thisFirstBlobAvrgIntensity, detection);
 
-						System.out.format("Creating detection with parent adj %d at (%f, %f) %n",
-								detection.getFirstBlobNodeIndex(), x, y);
+						if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+							Trace.format(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+									"Creating detection with parent adj %d at (%f, %f) %n",
+									detection.getFirstBlobNodeIndex(), x, y);
 						addWhiteBlobDetection(slice + 1, nextDetection);
 						break;
 						// terminate track
@@ -379,7 +403,8 @@ public class WhiteBlobsTracking {
 			int trIndex = possibleTracksIndexes.get(0);
 
 			int dSlice1 = detectionSlice - tracks.getStartSliceForTrack(trIndex);
-			System.out.println("slice differences is: " + dSlice1);
+			if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+				Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, "slice differences is: " + dSlice1);
 			// if in the same slice then dSlice=0, should remove first component
 			if (dSlice1 >= 0) {
 				if (!tracks.disconnectFirstComponentsFromTrack(trIndex, dSlice1 + 1)) {
@@ -396,8 +421,10 @@ public class WhiteBlobsTracking {
 			componentsList.get(tracks.getStartSliceForTrack(trIndex))
 					.setComponentHasParent(tracks.getFirstComponentIndexForTrack(trIndex));
 			
-			System.out.println("Only 1 child; added arc from " + detection.getParentAdjIndex() + " to "
-					+ tracks.getStartAdjIndexForTrack(trIndex));
+			if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+				Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+						"Only 1 child; added arc from " + detection.getParentAdjIndex() + " to "
+						+ tracks.getStartAdjIndexForTrack(trIndex));
 			return;
 		}
 
@@ -454,8 +481,10 @@ public class WhiteBlobsTracking {
 
 				score = calculateChildPenalScore(trSlice1, compIndex1, trSlice2, compIndex2,
 						detection.getFirstBlobCenter(), 0.3f);
-				System.out.println("Child score between tracks " + possibleTracksIndexes.get(i) + " and "
-						+ possibleTracksIndexes.get(j) + "is " + score);
+				if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+					Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+							"Child score between tracks " + possibleTracksIndexes.get(i) + " and "
+							+ possibleTracksIndexes.get(j) + "is " + score);
 				if (score < bestPairScore) {
 					bestPairScore = score;
 					bestIndex1 = i;
@@ -467,13 +496,16 @@ public class WhiteBlobsTracking {
 		int bestTrackIndex1 = possibleTracksIndexes.get(bestIndex1);
 		int bestTrackIndex2 = possibleTracksIndexes.get(bestIndex2);
 
-		System.out.println("best track index 1: " + bestTrackIndex1 + ", best track index 2: " + bestTrackIndex2);
+		if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+			Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+					"best track index 1: " + bestTrackIndex1 + ", best track index 2: " + bestTrackIndex2);
 
 		// clear first components in these tracks if they started before or in the same
 		// slice
 		int dSlice1 = detectionSlice - tracks.getStartSliceForTrack(bestTrackIndex1);
 		int dSlice2 = detectionSlice - tracks.getStartSliceForTrack(bestTrackIndex2);
-		System.out.println("slice differences are: " + dSlice1 + ", " + dSlice2);
+		if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG))
+			Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG, "slice differences are: " + dSlice1 + ", " + dSlice2);
 		// if in the same slice then dSlice=0, should remove first component
 		if (dSlice1 >= 0)
 			tracks.disconnectFirstComponentsFromTrack(bestTrackIndex1, dSlice1 + 1);
@@ -496,8 +528,12 @@ public class WhiteBlobsTracking {
 		componentsList.get(tracks.getStartSliceForTrack(bestTrackIndex2))
 				.setComponentHasParent(tracks.getFirstComponentIndexForTrack(bestTrackIndex2));
 
-		System.out.println("Added arc from " + detection.getFirstBlobNodeIndex() + " to " + nodeToIndex1);
-		System.out.println("Added arc from " + detection.getFirstBlobNodeIndex() + " to " + nodeToIndex2);
+		if (Trace.isEnabled(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG)) {
+			Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+					"Added arc from " + detection.getFirstBlobNodeIndex() + " to " + nodeToIndex1);
+			Trace.log(Trace.Subsystem.MITOSIS, Trace.Level.DEBUG,
+					"Added arc from " + detection.getFirstBlobNodeIndex() + " to " + nodeToIndex2);
+		}
 	}
 
 	/*
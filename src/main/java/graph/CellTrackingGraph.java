@@ -4,16 +4,25 @@ import java.awt.Color;
 import java.awt.Point;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
 import cellTracking.ComponentProperties;
 import cellTracking.ImageComponentsAnalysis;
 import cellTracking.ImageFunctions;
 import cellTracking.NearestNeighbourTracking;
+import cellTracking.Trace;
 import colorPicking.ColorPicker;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.VirtualStack;
 import ij.gui.PolygonRoi;
 import ij.gui.Roi;
 import ij.gui.Wand;
@@ -33,8 +42,21 @@ public class CellTrackingGraph {
 	private ArrayList<ImageComponentsAnalysis> componentsList; // list with tracked component analysis
 	private ArrayList<ImageProcessor> images; // images with components labeled after tracking. Will be generated by
 												// tracking results
+	/*
+	 * if the tracking keeps images in a frame store, result images are not kept:
+	 * new label of every component of every slice is saved here and a slice is
+	 * drawn when it is requested
+	 */
+	private int[][] trackLabels = null;
+	/*
+	 * if set, result images are kept in this memory-mapped file instead of the
+	 * heap, components are drawn into it directly
+	 */
+	private MappedLabelStack labelStack = null;
+	/* tracks, mitosis and tracked components, written to the info file */
+	private LineageFile lineageFile = null;
 
-	private static int newIndex; // it is global index for regraphing tracking results
+	private int newIndex; // it is global index for regraphing tracking results
 	private RoiManager roiManager; // roi manager for saving resulting tracks as rois
 	ImagePlus activeImage, resultImage;
 
@@ -43,6 +65,16 @@ public class CellTrackingGraph {
 	 * tracking graph's node labels are indexes that refer to cell id. So the cell
 	 */
 	public CellTrackingGraph(NearestNeighbourTracking trackingResult, RoiManager roiManager, ImagePlus activeImage, String infoFileName) {
+		this(trackingResult, roiManager, activeImage, infoFileName, null);
+	}
+
+	/*
+	 * the same, result images are written to "labelStack" which must have the size
+	 * of the tracked stack. It can be saved by saveTrackedComponentImages without
+	 * copying
+	 */
+	public CellTrackingGraph(NearestNeighbourTracking trackingResult, RoiManager roiManager, ImagePlus activeImage,
+			String infoFileName, MappedLabelStack labelStack) {
 		// Graph trGraph = trackingResult.getGraph();
 		this.roiManager = roiManager;
 		if (roiManager != null)
@@ -55,9 +87,24 @@ public class CellTrackingGraph {
 		componentsList = new ArrayList<ImageComponentsAnalysis>(trackingResult.getSlicesCount());
 		images = new ArrayList<ImageProcessor>(trackingResult.getSlicesCount());
 		prevComponentsList = trackingResult.getComponentsList();
-		for (int i = 0; i < prevComponentsList.size(); i++) {
-			images.add(new ShortProcessor(prevComponentsList.get(i).getWidth(), prevComponentsList.get(i).getHeight()));
+		if (trackingResult.getFrameStore() != null) {
+			trackLabels = new int[prevComponentsList.size()][];
+			for (int i = 0; i < prevComponentsList.size(); i++)
+				trackLabels[i] = new int[prevComponentsList.get(i).getComponentsCount()];
+		} else if (labelStack == null) {
+			for (int i = 0; i < prevComponentsList.size(); i++) {
+				images.add(
+						new ShortProcessor(prevComponentsList.get(i).getWidth(), prevComponentsList.get(i).getHeight()));
+			}
+		}
+
+		if (labelStack != null && !prevComponentsList.isEmpty()) {
+			ImageComponentsAnalysis first = prevComponentsList.get(0);
+			if (labelStack.getSize() != prevComponentsList.size() || labelStack.getWidth() != first.getWidth()
+					|| labelStack.getHeight() != first.getHeight())
+				throw new IllegalArgumentException("label stack size differs from the tracked stack");
 		}
+		this.labelStack = labelStack;
 
 		this.activeImage = activeImage;
 		// roiManager.selectAndMakeVisible(activeImage, -1);
@@ -75,19 +122,46 @@ public class CellTrackingGraph {
 		}
 
 		resetNewIndex();
-		System.out.println("Graph before analyzing: ");
-		System.out.println(trGraph);
+		Trace.log(Trace.Subsystem.GRAPH, Trace.Level.DEBUG, "Graph before analyzing: ");
+		Trace.log(Trace.Subsystem.GRAPH, Trace.Level.DEBUG, new Trace.Message() {
+			@Override
+			public String get() {
+				return trGraph.toString();
+			}
+		});
 
 		// for (int i=0; i<prevComponentsList.size(); i++) {
 		// prevComponentsList.get(i).improveComponentContours();
 		// prevComponentsList.set(i, new ImageComponentsAnalysis(images.get(i),
 		// prevComponentsList.get(i).getAvrgIntensityImage(), false));
 		// }
+		if (!prevComponentsList.isEmpty())
+			lineageFile = new LineageFile(prevComponentsList.size(), prevComponentsList.get(0).getWidth(),
+					prevComponentsList.get(0).getHeight(), true);
 		MitosisInfo info = new MitosisInfo();
 		analyseTrackingGraph(info); // new g is generated, images filled with newly labeled components
 
-		if (!infoFileName.isEmpty())
-			MitosisInfo.SerializeMitosisInfo(infoFileName, info);
+		if (lineageFile != null) {
+			info.addTo(lineageFile);
+			try {
+				collectTracks(g, new TrackRecords() {
+					@Override
+					public void add(int trackIndex, int t1, int t2, int parentTrackIndex) {
+						lineageFile.addTrack(trackIndex, t1, t2, parentTrackIndex);
+					}
+				});
+				if (!infoFileName.isEmpty())
+					lineageFile.write(infoFileName);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		if (labelStack != null && trackLabels != null) { // slices in time order, so the frame store reads each once
+			for (int i = 0; i < trackLabels.length; i++)
+				labelStack.setSlice(i, getTrackedImage(i));
+			trackLabels = null;
+		}
 
 		// code below is useless?
 		for (int i = 0; i < componentsList.size(); i++) {
@@ -120,15 +194,15 @@ public class CellTrackingGraph {
 		}
 	}
 
-	private static int getNewIndex() {
+	private int getNewIndex() {
 		return newIndex++;
 	}
 
-	private static void resetNewIndex() {
+	private void resetNewIndex() {
 		newIndex = 1;
 	}
 
-	private static void setNewIndexIterator(int value) {
+	private void setNewIndexIterator(int value) {
 		newIndex = value;
 	}
 
@@ -137,6 +211,18 @@ public class CellTrackingGraph {
 	 * indexInPrev in prevComponentsList and assign intensity @param intensity to it
 	 */
 	void drawComponentInImage(int sliceIndex, int intensity, int indexInPrev) {
+		if (lineageFile != null) {
+			ImageComponentsAnalysis comps = prevComponentsList.get(sliceIndex);
+			point.Point c = comps.getComponentMassCenter(indexInPrev);
+			lineageFile.addNode(intensity, sliceIndex, (float) c.getX(), (float) c.getY(),
+					comps.getComponentArea(indexInPrev));
+		}
+		if (trackLabels != null) { // drawn later
+			if (indexInPrev >= trackLabels[sliceIndex].length) // components count may be behind the properties list
+				trackLabels[sliceIndex] = Arrays.copyOf(trackLabels[sliceIndex], indexInPrev + 1);
+			trackLabels[sliceIndex][indexInPrev] = intensity;
+			return;
+		}
 		ImageComponentsAnalysis prevComp = prevComponentsList.get(sliceIndex);
 		int x0 = prevComp.getComponentX0(indexInPrev);
 		int x1 = prevComp.getComponentX1(indexInPrev);
@@ -144,6 +230,13 @@ public class CellTrackingGraph {
 		int y1 = prevComp.getComponentY1(indexInPrev);
 		ImageProcessor prevImage = prevComp.getImageComponents();
 		int prevIntensity = prevComp.getComponentDisplayIntensity(indexInPrev);
+		if (labelStack != null) {
+			for (int y = y0; y <= y1; y++)
+				for (int x = x0; x <= x1; x++)
+					if (prevImage.get(x, y) == prevIntensity)
+						labelStack.set(sliceIndex, x, y, intensity);
+			return;
+		}
 		for (int y = y0; y <= y1; y++)
 			for (int x = x0; x <= x1; x++) {
 				if (prevImage.get(x, y) == prevIntensity) {
@@ -152,33 +245,92 @@ public class CellTrackingGraph {
 			}
 	}
 
+	public int getImagesCount() {
+		if (trackLabels != null)
+			return trackLabels.length;
+		return labelStack != null ? labelStack.getSize() : images.size();
+	}
+
+	/* image of the slice with components labeled by tracks */
+	public ImageProcessor getTrackedImage(int sliceIndex) {
+		if (trackLabels == null)
+			return labelStack != null ? labelStack.getProcessor(sliceIndex + 1) : images.get(sliceIndex);
+
+		ImageComponentsAnalysis prevComp = prevComponentsList.get(sliceIndex);
+		int[] labels = trackLabels[sliceIndex];
+		ImageProcessor prevImage = prevComp.getImageComponents();
+		ImageProcessor result = new ShortProcessor(prevImage.getWidth(), prevImage.getHeight());
+		int prevIntensity;
+		for (int i = 0; i < labels.length; i++) { // the same pixels as drawComponentInImage draws
+			if (labels[i] == 0)
+				continue;
+			prevIntensity = prevComp.getComponentDisplayIntensity(i);
+			for (int y = prevComp.getComponentY0(i); y <= prevComp.getComponentY1(i); y++)
+				for (int x = prevComp.getComponentX0(i); x <= prevComp.getComponentX1(i); x++)
+					if (prevImage.get(x, y) == prevIntensity)
+						result.set(x, y, labels[i]);
+		}
+		return result;
+	}
+
+	/* stack whose slices are drawn when they are read, for saving without keeping all of them */
+	private class TrackedImagesStack extends VirtualStack {
+		TrackedImagesStack(int width, int height) {
+			super(width, height, null, null);
+		}
+
+		@Override
+		public ImageProcessor getProcessor(int n) {
+			return getTrackedImage(n - 1);
+		}
+
+		@Override
+		public Object getPixels(int n) {
+			return getProcessor(n).getPixels();
+		}
+
+		@Override
+		public int getSize() {
+			return getImagesCount();
+		}
+
+		@Override
+		public String getSliceLabel(int n) {
+			return null;
+		}
+
+		@Override
+		public int getBitDepth() {
+			return 16;
+		}
+	}
+
 	/*
 	 * draws components colored by full tracks, i.e. the same color even if
 	 * separated by 1+ slices
 	 */
 	public ImagePlus drawComponentColoredByFullTracks(ImagePlus backgroundImage) {
-		if (images.isEmpty() || backgroundImage.getNSlices() != images.size())
+		if (getImagesCount() == 0 || backgroundImage.getNSlices() != getImagesCount())
 			return backgroundImage;
 
 		int w, h;
-		w = images.get(0).getWidth();
-		h = images.get(0).getHeight();
+		w = backgroundImage.getWidth();
+		h = backgroundImage.getHeight();
 
 		ImageStack stack = new ImageStack(w, h);
-		for (int i = 0; i < images.size(); i++) {
+		for (int i = 0; i < getImagesCount(); i++) {
 			stack.addSlice(backgroundImage.getImageStack().getProcessor(i + 1).convertToColorProcessor());
 		}
 
-		ArrayList<Integer> childs;
-		ArrayList<ArrayList<Integer>> adj = Graph.copyAdjList(trGraph.adjLists);
+		Lineage lineage = new Lineage(trGraph);
+		Lineage.Traversal traversal = lineage.newTraversal();
 
 		resetNewIndex();
-		for (int i = 0; i < adj.size(); i++) {
-			childs = adj.get(i);
-			if (childs.isEmpty())
+		for (int i = 0; i < lineage.nodesCount(); i++) {
+			if (traversal.getRemainingChildCount(i) == 0)
 				continue;
 
-			drawColorTrack(stack, adj, Graph.getStartingAdjIndex(adj, i), getNewIndex());
+			drawColorTrack(stack, traversal, traversal.getStartingIndex(i), getNewIndex());
 		}
 
 		ImagePlus result = new ImagePlus("Full Tracks Colorized", stack);
@@ -186,11 +338,10 @@ public class CellTrackingGraph {
 	}
 
 	// entering this function when childs size > 0
-	void drawColorTrack(ImageStack stack, ArrayList<ArrayList<Integer>> adj, int startIndexAdj,
-			int startingTrackNumber) {
+	void drawColorTrack(ImageStack stack, Lineage.Traversal traversal, int startIndexAdj, int startingTrackNumber) {
 		boolean added = false;
-		ArrayList<Integer> childs = adj.get(startIndexAdj);
-		if (childs.isEmpty()) {
+		int node = startIndexAdj; // node whose remaining children are followed
+		if (traversal.getRemainingChildCount(node) == 0) {
 			System.out.println("Empty childs in draw color track, probably new track");
 			return;
 		}
@@ -201,32 +352,30 @@ public class CellTrackingGraph {
 
 		drawComponentOnStackColored(stack, startIndexAdj, trackNumber);
 
-		childs = adj.get(startIndexAdj);
-		while (childs.size() == 1) { // track a component until it has no childen (disappear) or 2 children
-										// (division)
+		while (traversal.getRemainingChildCount(node) == 1) { // track a component until it has no childen
+																// (disappear) or 2 children (division)
 			// add arc to Graph, draw component
-			childIndex = childs.get(0);
+			childIndex = traversal.getRemainingChild(node, 0);
 
 			drawComponentOnStackColored(stack, childIndex, trackNumber);
 			drawTrackLineColorBetweenComponent(stack, prevAdjIndex, childIndex, trackNumber);
 
 			prevAdjIndex = childIndex;
-			childs.clear(); // clear to mark component as tracked in parent node
-			childs = adj.get(childIndex); // go to child component
+			traversal.markTracked(node, 1); // mark component as tracked in parent node
+			node = childIndex; // go to child component
 		}
-		if (childs.size() >= 2) { // create division in graph
+		if (traversal.getRemainingChildCount(node) >= 2) { // create division in graph
+			int child1 = traversal.getRemainingChild(node, 0), child2 = traversal.getRemainingChild(node, 1);
 
 			ci1 = getNewIndex(); // get next index and increment it
-			drawColorTrack(stack, adj, childs.get(0), ci1);
-			drawTrackLineColorBetweenComponent(stack, prevAdjIndex, childs.get(0), ci1);
+			drawColorTrack(stack, traversal, child1, ci1);
+			drawTrackLineColorBetweenComponent(stack, prevAdjIndex, child1, ci1);
 
 			ci2 = getNewIndex(); // get new index and increment it
-			drawColorTrack(stack, adj, childs.get(1), ci2);
-			drawTrackLineColorBetweenComponent(stack, prevAdjIndex, childs.get(1), ci2);
+			drawColorTrack(stack, traversal, child2, ci2);
+			drawTrackLineColorBetweenComponent(stack, prevAdjIndex, child2, ci2);
 
-			// childs.clear();
-			childs.remove(0);
-			childs.remove(0);
+			traversal.markTracked(node, 2);
 		}
 	}
 
@@ -235,7 +384,7 @@ public class CellTrackingGraph {
 		int x0 = prevComp.getComponentX0(indexInPrev);
 		int y0 = prevComp.getComponentY0(indexInPrev);
 
-		ImageProcessor imageComponents = images.get(sliceIndex);
+		ImageProcessor imageComponents = getTrackedImage(sliceIndex);
 
 		Roi roi = null;
 		Wand w = new Wand(imageComponents);
@@ -255,7 +404,7 @@ public class CellTrackingGraph {
 		int x0 = prevComp.getComponentX0(indexInPrev);
 		int y0 = prevComp.getComponentY0(indexInPrev);
 
-		ImageProcessor imageComponents = images.get(sliceIndex);
+		ImageProcessor imageComponents = getTrackedImage(sliceIndex);
 		boolean isMitosis = prevComp.isComponentMitosis(indexInPrev);
 
 		Roi roi = null;
@@ -305,47 +454,49 @@ public class CellTrackingGraph {
 	 * fill mitosis info for future
 	 */
 	void analyseTrackingGraph(MitosisInfo info) {
-		ArrayList<Integer> childs;
-		ArrayList<ArrayList<Integer>> adj = Graph.copyAdjList(trGraph.adjLists);
-		if (adj.isEmpty()) {
-			System.out.println("copied adj list is empty");
+		int childsCount;
+		Lineage lineage = new Lineage(trGraph);
+		if (lineage.nodesCount() == 0) {
+			System.out.println("lineage is empty");
 			return;
 		}
+		Lineage.Traversal traversal = lineage.newTraversal();
 		resetNewIndex();
 
-		for (int i = 0; i < adj.size(); i++) { // nodes "for". cycle through "grand parents" i.e. that begin the track
-			childs = adj.get(i);
+		for (int i = 0; i < lineage.nodesCount(); i++) { // nodes "for". cycle through "grand parents" i.e. that begin
+															// the track
+			childsCount = traversal.getRemainingChildCount(i);
 			// lets skip components that doesn't have children. And use it as indicator that
 			// the component was re-tracked.
 			// Because we also skip "sole" components which shoudln't be in the track
-			if (childs.isEmpty()) {
+			if (childsCount == 0) {
 				// here is small hack: we think that track's last component can't start earlier
 				// than the first component...
 				// in common case this is wrong
 				continue;
 			}
-			if (childs.size() == 2) { // if track ended on division
+			if (childsCount == 2) { // if track ended on division
 				// do nothing, so it would be registered in addTrack function
 				// continue;
 			}
-			if (childs.size() > 2) {
+			if (childsCount > 2) {
 				System.out.println(" !!! More than 2 children in graph detected !!! ");
 			}
 
 			// now only 1 child, make a track. It still would be added for sure, since only
 			// 1
 			// child. 2 children also handled in addtrack
-			addTrack(adj, Graph.getStartingAdjIndex(adj, i), getNewIndex(), 0, info);
+			addTrack(traversal, traversal.getStartingIndex(i), getNewIndex(), 0, info);
 		}
 	}
 
 	// only called when component has 1 child besides when in itself or when it has
 	// parent (called from division)
 	// so first cell should be drawn
-	boolean addTrack(ArrayList<ArrayList<Integer>> adj, int startIndexAdj, int startingTrackIndex,
-			int parentTrackNumber, MitosisInfo info) {
+	boolean addTrack(Lineage.Traversal traversal, int startIndexAdj, int startingTrackIndex, int parentTrackNumber,
+			MitosisInfo info) {
 		boolean added = false;
-		ArrayList<Integer> childs;
+		int node; // node whose remaining children are followed
 		int childIndex = -1, t1, t2, ci1, ci2;
 		Node v1, v2;
 		int startSlice, endSlice, count = 0;
@@ -380,11 +531,11 @@ public class CellTrackingGraph {
 				System.out.println("null roi");
 		}
 
-		childs = adj.get(startIndexAdj);
-		while (childs.size() == 1) { // track a component until it has no children (disappear) or 2 children
-										// (division)
+		node = startIndexAdj;
+		while (traversal.getRemainingChildCount(node) == 1) { // track a component until it has no children
+																// (disappear) or 2 children (division)
 			// add arc to Graph, draw component
-			childIndex = childs.get(0);
+			childIndex = traversal.getRemainingChild(node, 0);
 			newTrack = false;
 
 			t2 = trGraph.getNodeSliceByGlobalIndex(childIndex);
@@ -395,9 +546,9 @@ public class CellTrackingGraph {
 			// childs);
 
 			added = true;
-			childs.clear(); // clear to mark component as tracked in parent node
+			traversal.markTracked(node, 1); // mark component as tracked in parent node
 			v1 = v2;
-			childs = adj.get(childIndex); // go to child component
+			node = childIndex; // go to child component
 
 			if (t2 - t1 > 1) {
 				// write this track and start another one, connected to this
@@ -423,8 +574,10 @@ public class CellTrackingGraph {
 				mitosisEndSlice = t1;
 			}
 
-			System.out.format("1 child: track index %d, mit start %d, mit end %d prevTrack %d %n", trackIndex,
-					mitosisStartSlice, mitosisEndSlice, prevTrackNumber);
+			if (Trace.isEnabled(Trace.Subsystem.GRAPH, Trace.Level.DEBUG))
+				Trace.format(Trace.Subsystem.GRAPH, Trace.Level.DEBUG,
+						"1 child: track index %d, mit start %d, mit end %d prevTrack %d %n", trackIndex,
+						mitosisStartSlice, mitosisEndSlice, prevTrackNumber);
 
 			if (newTrack) {
 				if (mitosisStartSlice != -1)
@@ -444,9 +597,12 @@ public class CellTrackingGraph {
 					System.out.println(" ### roi is null for slice " + t1 + " count " + count);
 			}
 		}
-		if (childs.size() >= 2) { // create division in graph
-			System.out.format("2 children: track index %d, mit start %d, mit end %d prevTrack %d %n", trackIndex,
-					mitosisStartSlice, mitosisEndSlice, prevTrackNumber);
+		if (traversal.getRemainingChildCount(node) >= 2) { // create division in graph
+			int child1 = traversal.getRemainingChild(node, 0), child2 = traversal.getRemainingChild(node, 1);
+			if (Trace.isEnabled(Trace.Subsystem.GRAPH, Trace.Level.DEBUG))
+				Trace.format(Trace.Subsystem.GRAPH, Trace.Level.DEBUG,
+						"2 children: track index %d, mit start %d, mit end %d prevTrack %d %n", trackIndex,
+						mitosisStartSlice, mitosisEndSlice, prevTrackNumber);
 
 			if (mitosisStartSlice != -1) {
 				info.addMitosisInfo(trackIndex, mitosisStartSlice, mitosisEndSlice);
@@ -455,34 +611,36 @@ public class CellTrackingGraph {
 			}
 
 			// add needed arcs from v1 to its children and add 2
-			t2 = trGraph.getNodeSliceByGlobalIndex(childs.get(0));
+			t2 = trGraph.getNodeSliceByGlobalIndex(child1);
 			// SO THERE ARE SOME PROBLMES INVOLVING NEW INDEXES OF PARENT NODES WHEN
 			// DIVIDING, CHECK LATER. Should be ok now
 			ci1 = getNewIndex(); // get next index and increment it
 			v2 = new Node(t2, ci1);
 			g.addArcFromToAddable(v1, v2);
-			System.out.println();
-			System.out.println("Added arc child 1: " + v1 + "---" + v2);
+			if (Trace.isEnabled(Trace.Subsystem.GRAPH, Trace.Level.DEBUG))
+				Trace.log(Trace.Subsystem.GRAPH, Trace.Level.DEBUG,
+						System.lineSeparator() + "Added arc child 1: " + v1 + "---" + v2);
 
 			// no need to draw there because the track will be drawn in previous 'for'
-			addTrack(adj, childs.get(0), ci1, startingTrackIndex, info);
+			addTrack(traversal, child1, ci1, startingTrackIndex, info);
 
 			// add arc here
-			t2 = trGraph.getNodeSliceByGlobalIndex(childs.get(1));
+			t2 = trGraph.getNodeSliceByGlobalIndex(child2);
 			ci2 = getNewIndex(); // get new index and increment it
 			v2 = new Node(t2, ci2);
 			g.addArcFromToAddable(v1, v2);
-			System.out.println();
-			System.out.println("Added arc child 2: " + v1 + "---" + v2);
+			if (Trace.isEnabled(Trace.Subsystem.GRAPH, Trace.Level.DEBUG))
+				Trace.log(Trace.Subsystem.GRAPH, Trace.Level.DEBUG,
+						System.lineSeparator() + "Added arc child 2: " + v1 + "---" + v2);
 
-			addTrack(adj, childs.get(1), ci2, startingTrackIndex, info);
+			addTrack(traversal, child2, ci2, startingTrackIndex, info);
 
-			// childs.clear();
-			childs.remove(0);
-			childs.remove(0);
+			traversal.markTracked(node, 2);
 		}
-		System.out.format("f end: track index %d, mit start %d, mit end %d prevTrack %d %n", trackIndex,
-				mitosisStartSlice, mitosisEndSlice, prevTrackNumber);
+		if (Trace.isEnabled(Trace.Subsystem.GRAPH, Trace.Level.DEBUG))
+			Trace.format(Trace.Subsystem.GRAPH, Trace.Level.DEBUG,
+					"f end: track index %d, mit start %d, mit end %d prevTrack %d %n", trackIndex, mitosisStartSlice,
+					mitosisEndSlice, prevTrackNumber);
 
 		if (mitosisStartSlice != -1) {
 			info.addMitosisInfo(trackIndex, mitosisStartSlice, mitosisEndSlice);
@@ -493,61 +651,51 @@ public class CellTrackingGraph {
 		return added;
 	}
 
-	public void writeTracksToFile_ctc_afterAnalysis(String filename) {
-		writeTracksToFile_ctc_general(filename, g);
+	/* tracks, mitosis and tracked components found by the analysis, null if nothing was tracked */
+	public LineageFile getLineageFile() {
+		return lineageFile;
+	}
+
+	public int writeTracksToFile_ctc_afterAnalysis(String filename) {
+		return writeTracksToFile_ctc_general(filename, g);
 	}
 
 	public static void writeMitosisInformation(String filename, Graph g_analysed) {
 		// ImageComponentsAnalysis prevComp = prevComponentsList.get(sliceIndex);
 	}
 
+	/* gzip output if the file name ends with ".gz" */
+	public int writeTracksToFile_ctc_general(String filename, Graph g_analysed) {
+		return writeTracksToFile_ctc_general(filename, g_analysed, filename.endsWith(".gz"));
+	}
+
 	/*
 	 * generated txt file for TRA evaluation in CTC format algorithm should be
 	 * changed so that track of one cell that interrupts for 1+ slices is divided
-	 * into several tracks
+	 * into several tracks. Records are written to the file as they are found, so
+	 * only the traversal state is kept in memory. Returns the number of tracks
+	 * written
 	 */
-	public void writeTracksToFile_ctc_general(String filename, Graph g_analysed) {
-		BufferedWriter writer = null, writerMit = null;
-		resetNewIndex();
-		ArrayList<ArrayList<Integer>> adj = Graph.copyAdjList(g_analysed.getAdjList());
+	public int writeTracksToFile_ctc_general(String filename, Graph g_analysed, boolean gzip) {
+		Writer writer = null;
+		int tracksCount = 0;
 		try {
 			File logFile = new File(filename);
 
-			String mitosisInfoFileName = "mitosis_info.txt";
-			File mitosisInfo = new File(mitosisInfoFileName);
-
 			// This will output the full path where the file will be written to...
 			System.out.println(logFile.getCanonicalPath());
 
-			writer = new BufferedWriter(new FileWriter(logFile));
-
-			String trackTxt;
-			ArrayList<Integer> childs;
-			int trackAdjIndex;
-			for (int i = 0; i < adj.size(); i++) { // nodes "for". cycle through "grand parents" i.e. that begin the
-													// track
-				childs = adj.get(i);
-				// lets skip components that doesn't have children. And use it as indicator that
-				// the component was re-tracked.
-				// Because we also skip "sole" components which shoudln't be in the track
-				if (childs.isEmpty()) {
-					continue;
+			OutputStream out = new FileOutputStream(logFile);
+			if (gzip)
+				out = new GZIPOutputStream(out, 1 << 16);
+			writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII), 1 << 16);
+			final Writer recordsWriter = writer;
+			tracksCount = collectTracks(g_analysed, new TrackRecords() {
+				@Override
+				public void add(int trackIndex, int t1, int t2, int parentTrackIndex) throws IOException {
+					writeTrackRecord(recordsWriter, trackIndex, t1, t2, parentTrackIndex);
 				}
-				if (childs.size() == 2) { // if track ended on division
-					// do this event in getText
-					// continue;
-				}
-
-				trackAdjIndex = g_analysed.getNodeIndexByGlobalIndex(i); // get track
-																			// index as
-																			// intensity
-				// now only 1 child, make a track. It still would be added for sure, since only
-				// 1 child
-				trackTxt = getTrackString(g_analysed, adj, i, getNewIndex(), trackAdjIndex, 0);
-				System.out.println(trackTxt);
-				writer.write(trackTxt);
-				writer.newLine();
-			}
+			});
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
@@ -557,92 +705,170 @@ public class CellTrackingGraph {
 			} catch (Exception e) {
 			}
 		}
+		return tracksCount;
 	}
 
-	/* called only when there is at least 1 child starting from the startAdjIndex */
-	private static String getTrackString(Graph g, ArrayList<ArrayList<Integer>> adj, int startIndexAdj, int trackIndex,
-			int trackAdjIndex, int parentTrackIndex) {
-		String result = "";
-		ArrayList<Integer> childs;
-		int childIndex = -1, t1, t2, ci1, ci2;
-		int startSlice, endSlice;
-		int currTrackIndex = trackIndex;
-
-		childs = adj.get(startIndexAdj);
-		t1 = g.getNodeSliceByGlobalIndex(startIndexAdj); // slices are labeled 1 to nSlices
-		startSlice = t1;
-		endSlice = t1;
-
-		while (childs.size() == 1) { // track a component until it has no children (disappear) or 2 children
-										// (division)
-			childIndex = childs.get(0);
-			t2 = g.getNodeSliceByGlobalIndex(childIndex);
+	/* receives CTC track records as they are found */
+	private interface TrackRecords {
+		void add(int trackIndex, int t1, int t2, int parentTrackIndex) throws IOException;
+	}
 
-			childs.clear(); // clear to mark component as tracked in parent node
-			childs = adj.get(childIndex); // go to child component
-			if (t2 - t1 > 1) {
-				// write this track and start another one, connected to this
-				result = result.concat(
-						trackString(currTrackIndex, startSlice, endSlice, parentTrackIndex) + System.lineSeparator());
-				parentTrackIndex = currTrackIndex;
-				currTrackIndex = getNewIndex();
-				startSlice = t2;
+	/*
+	 * finds tracks of the graph in CTC format, the same ones with the same indexes
+	 * every time. Returns the number of tracks
+	 */
+	private int collectTracks(Graph g_analysed, TrackRecords records) throws IOException {
+		int tracksCount = 0;
+		resetNewIndex();
+		Lineage lineage = new Lineage(g_analysed);
+		Lineage.Traversal traversal = lineage.newTraversal();
+		TrackStack stack = new TrackStack();
+		for (int i = 0; i < lineage.nodesCount(); i++) { // nodes "for". cycle through "grand parents" i.e. that
+															// begin the track
+			// lets skip components that doesn't have children. And use it as indicator that
+			// the component was re-tracked.
+			// Because we also skip "sole" components which shoudln't be in the track
+			if (traversal.getRemainingChildCount(i) == 0) {
+				continue;
 			}
-			t1 = t2; // t1 is for previous slice
-			endSlice = t2;
-		}
-
-		// end of track reached, write to string
-		// "track_id" "start slice" "end slice" "parent_id"
-		if (childIndex == -1) { // it means that the parent component has no parent components
-			t2 = t1;
-		} else {
-			t2 = g.getNodeSliceByGlobalIndex(childIndex);
+			tracksCount += writeTrack(records, lineage, traversal, stack, i);
 		}
+		return tracksCount;
+	}
 
-		result = result.concat(trackString(currTrackIndex, startSlice, t2, parentTrackIndex));
-		if (childs.size() >= 2) { // division
+	/* pending tracks of the lineage: starting node and parent track index */
+	private static class TrackStack {
+		int[] node = new int[16], parent = new int[16];
+		int size = 0;
 
-			result = result.concat(System.getProperty("line.separator"));
-			ci1 = g.getNodeIndexByGlobalIndex(childs.get(0));
-			result = result.concat(getTrackString(g, adj, childs.get(0), getNewIndex(), ci1, currTrackIndex));
+		void push(int n, int p) {
+			if (size == node.length) {
+				node = Arrays.copyOf(node, 2 * size);
+				parent = Arrays.copyOf(parent, 2 * size);
+			}
+			node[size] = n;
+			parent[size++] = p;
+		}
+	}
 
-			result = result.concat(System.getProperty("line.separator"));
-			ci2 = g.getNodeIndexByGlobalIndex(childs.get(1));
-			result = result.concat(getTrackString(g, adj, childs.get(1), getNewIndex(), ci2, currTrackIndex));
+	/*
+	 * writes the lineage beginning at the startIndexAdj, which has at least 1
+	 * remaining child. Tracks are written in depth first order, first child of a
+	 * division with all its descendants before the second child, the same as
+	 * indexes are given. Returns the number of tracks written
+	 */
+	private int writeTrack(TrackRecords records, Lineage lineage, Lineage.Traversal traversal, TrackStack stack,
+			int startIndexAdj) throws IOException {
+		int count = 0;
+		int node, childIndex, t1, t2;
+		int startSlice, currTrackIndex, parentTrackIndex;
+
+		stack.size = 0;
+		stack.push(startIndexAdj, 0);
+		while (stack.size > 0) {
+			stack.size--;
+			node = stack.node[stack.size];
+			parentTrackIndex = stack.parent[stack.size];
+			currTrackIndex = getNewIndex();
+
+			t1 = lineage.getTime(node); // slices are labeled 1 to nSlices
+			startSlice = t1;
+			while (traversal.getRemainingChildCount(node) == 1) { // track a component until it has no children
+																	// (disappear) or 2 children (division)
+				childIndex = traversal.getRemainingChild(node, 0);
+				t2 = lineage.getTime(childIndex);
+
+				traversal.markTracked(node, 1); // mark component as tracked in parent node
+				node = childIndex; // go to child component
+				if (t2 - t1 > 1) {
+					// write this track and start another one, connected to this
+					records.add(currTrackIndex, startSlice, t1, parentTrackIndex);
+					count++;
+					parentTrackIndex = currTrackIndex;
+					currTrackIndex = getNewIndex();
+					startSlice = t2;
+				}
+				t1 = t2; // t1 is for previous slice
+			}
 
-			// childs.clear();
-			childs.remove(0);
-			childs.remove(0);
+			// end of track reached
+			// "track_id" "start slice" "end slice" "parent_id"
+			records.add(currTrackIndex, startSlice, t1, parentTrackIndex);
+			count++;
+			if (traversal.getRemainingChildCount(node) >= 2) { // division, daughters are written next
+				int child1 = traversal.getRemainingChild(node, 0), child2 = traversal.getRemainingChild(node, 1);
+				traversal.markTracked(node, 2);
+				stack.push(child2, currTrackIndex);
+				stack.push(child1, currTrackIndex);
+			}
 		}
-		return result;
+		return count;
 	}
 
-	private static String trackString(int trackIndex, int t1, int t2, int parentTrackIndex) {
-		return String.valueOf(trackIndex) + " " + String.valueOf(t1) + " " + String.valueOf(t2) + " "
-				+ String.valueOf(parentTrackIndex);
+	private static void writeTrackRecord(Writer writer, int trackIndex, int t1, int t2, int parentTrackIndex)
+			throws IOException {
+		writer.write(Integer.toString(trackIndex));
+		writer.write(' ');
+		writer.write(Integer.toString(t1));
+		writer.write(' ');
+		writer.write(Integer.toString(t2));
+		writer.write(' ');
+		writer.write(Integer.toString(parentTrackIndex));
+		writer.write(System.lineSeparator());
+		if (Trace.isEnabled(Trace.Subsystem.GRAPH, Trace.Level.DEBUG))
+			Trace.format(Trace.Subsystem.GRAPH, Trace.Level.DEBUG, "%d %d %d %d%n", trackIndex, t1, t2,
+					parentTrackIndex);
 	}
 
-	/* draws tracks in TRA but in colors */
-	public ImagePlus showTrackedComponentImages(String name, boolean save) {
-		if (images.isEmpty())
+	/* stack of images with tracked components in TRA format, not displayed */
+	public ImagePlus getTrackedComponentImages(String name) {
+		if (getImagesCount() == 0)
 			return null;
+		if (labelStack != null)
+			return new ImagePlus(name, labelStack);
+		if (trackLabels != null) {
+			ImageComponentsAnalysis first = prevComponentsList.get(0);
+			return new ImagePlus(name, new TrackedImagesStack(first.getWidth(), first.getHeight()));
+		}
 		ImageStack stack = new ImageStack(images.get(0).getWidth(), images.get(0).getHeight(), images.size());
 		for (int i = 0; i < images.size(); i++) {
 			stack.setProcessor(images.get(i), i + 1);
 		}
+		return new ImagePlus(name, stack);
+	}
 
-		ImagePlus imp = new ImagePlus(name, stack);
+	/* draws tracks in TRA but in colors */
+	public ImagePlus showTrackedComponentImages(String name, boolean save) {
+		ImagePlus imp = getTrackedComponentImages(name);
+		if (imp == null)
+			return null;
 		imp.show();
 
 		if (save) {
-			IJ.saveAsTiff(imp, name);	
-			
-			IJ.log("Tracking result image saved at: " + name);
+			if (labelStack != null ? saveTrackedComponentImages(name) : IJ.saveAsTiff(imp, name))
+				IJ.log("Tracking result image saved at: " + name);
 		}
 		return imp;
 	}
 
+	/*
+	 * saves images with tracked components as tiff. A mapped label stack is
+	 * already a tiff file, it is moved to "path" instead of writing it again
+	 */
+	public boolean saveTrackedComponentImages(String path) {
+		if (labelStack != null) {
+			try {
+				labelStack.saveAsTiff(new File(path));
+				return true;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		ImagePlus imp = getTrackedComponentImages(new File(path).getName());
+		return imp != null && IJ.saveAsTiff(imp, path);
+	}
+
 	public ImagePlus drawColorComponents(ImagePlus image) {
 		ColorPicker colorPicker = new ColorPicker();
 		ImageStack stack = new ImageStack(image.getWidth(), image.getHeight(), image.getNSlices());
@@ -662,8 +888,9 @@ public class CellTrackingGraph {
 
 	/* draw components in colorProcessor */
 	public void drawComponentsColored(ColorProcessor cp, int slice) {
-		if (images.isEmpty())
+		if (getImagesCount() == 0)
 			return;
+		ImageProcessor trackedImage = getTrackedImage(slice - 1);
 		int i0, i1, t0, t1;
 		Node n0, n1;
 		Point p0, p1;
@@ -673,7 +900,7 @@ public class CellTrackingGraph {
 		int x0, x1, y0, y1;
 		for (int y = 0; y < cp.getHeight(); y++)
 			for (int x = 0; x < cp.getWidth(); x++) {
-				intensity = images.get(slice - 1).get(x, y);
+				intensity = trackedImage.get(x, y);
 				if (intensity != 0) {
 					cp.setColor(ColorPicker.color(intensity));
 					cp.drawPixel(x, y);
@@ -725,15 +952,9 @@ public class CellTrackingGraph {
 	}
 
 	public ImagePlus getTrackedComponentImages() {
-		if (images.isEmpty())
+		if (getImagesCount() == 0)
 			return new ImagePlus();
-		ImageStack stack = new ImageStack(images.get(0).getWidth(), images.get(0).getHeight(), images.size());
-		for (int i = 0; i < images.size(); i++) {
-			stack.setProcessor(images.get(i), i + 1);
-		}
-
-		ImagePlus imp = new ImagePlus("Tracked components", stack);
-		return imp;
+		return getTrackedComponentImages("Tracked components");
 	}
 
 	public void printTrackedGraph() {
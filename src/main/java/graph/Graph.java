@@ -1,6 +1,7 @@
 package graph;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /* let it be connected undirected graph (should be sufficient for trees) */
 public class Graph {
@@ -10,15 +11,28 @@ public class Graph {
 	// to use the graph easily
 	protected ArrayList<ArrayList<Integer>> adjLists; // has the same size as "nodes"
 
+	/* (t,i) of a node -> its index in "nodes", the first one if equal nodes were added */
+	private NodeIndexMap nodeIndexes;
+
+	/*
+	 * inverse of adjLists: the smallest index of a node which has the node as a
+	 * child (-1 if none) and the number of such arcs
+	 */
+	private int[] parents = new int[0];
+	private int[] parentsCount = new int[0];
+
 	public Graph(int nNodes, int nArcs, int nAdj) {
 		nodes = new ArrayList<Node>(5);
 		arcs = new ArrayList<Arc>(5);
 		adjLists = new ArrayList<ArrayList<Integer>>(nAdj);
+		nodeIndexes = new NodeIndexMap(nNodes);
 	}
 
 	/* "atomic" add node into set of nodes */
 	public void addNode(Node v) {
 		nodes.add(v);
+		nodeIndexes.putIfAbsent(NodeIndexMap.key(v.get_t(), v.get_i()), nodes.size() - 1);
+		addParentsEntry();
 		adjLists.add(new ArrayList<Integer>());
 	}
 
@@ -29,9 +43,14 @@ public class Graph {
 
 	public void addArc(Arc arc) {
 		arcs.add(arc);
-		int i = nodes.indexOf(arc.getFromNode());
-		int j = nodes.indexOf(arc.getToNode());
+		int i = getNodeIndex(arc.getFromNode());
+		int j = getNodeIndex(arc.getToNode());
 		adjLists.get(i).add(j);
+		if (j != -1) {
+			if (parents[j] == -1 || i < parents[j])
+				parents[j] = i;
+			parentsCount[j]++;
+		}
 		//System.out.println(" ### Graph: Arc from " + i + " to " + j + " added");
 	}
 
@@ -63,6 +82,8 @@ public class Graph {
 
 	public void addNodeToNode(Node nodeInGraph, Node newNode) {
 		nodes.add(newNode);
+		nodeIndexes.putIfAbsent(NodeIndexMap.key(newNode.get_t(), newNode.get_i()), nodes.size() - 1);
+		addParentsEntry();
 		addArcFromTo(nodeInGraph, newNode);
 	}
 
@@ -109,13 +130,17 @@ public class Graph {
 	}
 
 	private boolean isNodeInGraph(Node v) {
-		if (nodes.contains(v))
-			return true;
-		return false;
+		return getNodeIndex(v) != -1;
 	}
 
+	/* index of the node in the graph or -1 */
 	public int getNodeIndex(Node v) {
-		return nodes.indexOf(v);
+		return nodeIndexes.get(NodeIndexMap.key(v.get_t(), v.get_i()));
+	}
+
+	/* returns the smallest index of a node having this node as a child, or -1 */
+	public int getParentByAdjIndex(int index) {
+		return parents[index];
 	}
 
 	public static ArrayList<ArrayList<Integer>> copyAdjList(ArrayList<ArrayList<Integer>> list) {
@@ -131,23 +156,6 @@ public class Graph {
 		return result;
 	}
 
-	/*
-	 * returns the index in adj list which leads to the %index%, its "grandparent"
-	 */
-	public int getStartingAdjIndex(int index) {
-		return getStartingAdjIndex(adjLists, index);
-	}
-
-	public static int getStartingAdjIndex(ArrayList<ArrayList<Integer>> adj, int index) {
-		ArrayList<Integer> childs = null;
-		for (int i = 0; i < adj.size(); i++) {
-			childs = adj.get(i);
-			if (childs.contains(index))
-				return getStartingAdjIndex(adj, i);
-		}
-		return index;
-	}
-
 	public boolean checkNoEqualNodes() {
 		for (int i = 0; i < nodes.size(); i++) {
 			for (int j = 0; j < nodes.size(); j++) {
@@ -165,16 +173,47 @@ public class Graph {
 	// If the node exists in the graph, return the existing node, otherwise return
 	// the parameter
 	private Node findNode(Node v) {
-		for (int i = 0; i < nodes.size(); i++) {
-			if (v.equals(nodes.get(i)))
-				return nodes.get(i);
-		}
-		return v;
+		int index = getNodeIndex(v);
+		return index == -1 ? v : nodes.get(index);
 	}
 
-	/* removes childs from adj index */
+	/* removes childs from adj index, updates the parent index of the childs */
 	private void clearChildsByAdjIndex(int adjIndex) {
-		adjLists.get(adjIndex).clear();
+		ArrayList<Integer> childs = adjLists.get(adjIndex);
+		ArrayList<Integer> removed = new ArrayList<Integer>(childs);
+		childs.clear();
+		int child;
+		for (int k = 0; k < removed.size(); k++) {
+			child = removed.get(k);
+			if (child == -1)
+				continue;
+			parentsCount[child]--;
+			if (parents[child] == adjIndex)
+				parents[child] = parentsCount[child] == 0 ? -1 : findSmallestParent(child, adjIndex + 1);
+		}
+	}
+
+	/* new node has no parents */
+	private void addParentsEntry() {
+		int n = nodes.size();
+		if (parents.length < n) {
+			int capacity = Math.max(n, 2 * parents.length);
+			parents = Arrays.copyOf(parents, capacity);
+			parentsCount = Arrays.copyOf(parentsCount, capacity);
+		}
+		parents[n - 1] = -1;
+		parentsCount[n - 1] = 0;
+	}
+
+	/*
+	 * looks through adj lists from "from", only for nodes with several parents when
+	 * the smallest one is removed
+	 */
+	private int findSmallestParent(int index, int from) {
+		for (int i = from; i < adjLists.size(); i++)
+			if (adjLists.get(i).contains(index))
+				return i;
+		return -1;
 	}
 
 	/* remove arcs from node with given adj index. 
@@ -207,22 +246,22 @@ public class Graph {
 	}
 
 	private String adjListsToString() {
-		String result = "[";
+		StringBuilder result = new StringBuilder("[");
 		ArrayList<Integer> adj;
 		for (int i = 0; i < adjLists.size(); i++) {
 			adj = adjLists.get(i);
-			result = result.concat("[" + i + " | ");
+			result.append("[").append(i).append(" | ");
 			for (int j = 0; j < adj.size(); j++) {
-				result = result.concat(adj.get(j).toString());
+				result.append(adj.get(j));
 				if (j < adj.size() - 1)
-					result = result.concat(", ");
+					result.append(", ");
 			}
-			result = result.concat("]");
+			result.append("]");
 			if (i % 10 - 9 == 0)
-				result = result.concat(System.getProperty("line.separator"));
+				result.append(System.getProperty("line.separator"));
 		}
-		result = result.concat("]");
-		return result;
+		result.append("]");
+		return result.toString();
 	}
 
 	@Override
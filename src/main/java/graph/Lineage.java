@@ -0,0 +1,144 @@
+package graph;
+
+import java.util.Arrays;
+
+/*
+ * immutable compressed copy of a tracking graph. Node n is the node with index n
+ * in the graph adj list, its children are children[childStart[n] ..
+ * childStart[n+1]) in the order of the graph arcs. Only int arrays are kept, so
+ * large lineages don't hold boxed integers and lists
+ */
+public class Lineage {
+	private final int[] time; // slice of the node
+	private final int[] index; // component index of the node in its slice
+	private final int[] childStart;
+	private final int[] children;
+	private final int[] parent; // the smallest index of a node having this node as a child, or -1
+
+	public Lineage(Graph g) {
+		int n = g.adjLists.size();
+		time = new int[n];
+		index = new int[n];
+		childStart = new int[n + 1];
+		parent = new int[n];
+		int total = 0;
+		for (int i = 0; i < n; i++) {
+			time[i] = g.nodes.get(i).get_t();
+			index[i] = g.nodes.get(i).get_i();
+			childStart[i] = total;
+			total += g.adjLists.get(i).size();
+			parent[i] = g.getParentByAdjIndex(i); // maintained by the graph on arc add and remove
+		}
+		childStart[n] = total;
+
+		children = new int[total];
+		int k = 0;
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < g.adjLists.get(i).size(); j++, k++)
+				children[k] = g.adjLists.get(i).get(j);
+	}
+
+	public int nodesCount() {
+		return time.length;
+	}
+
+	public int getTime(int node) {
+		return time[node];
+	}
+
+	public int getComponentIndex(int node) {
+		return index[node];
+	}
+
+	public int getChildCount(int node) {
+		return childStart[node + 1] - childStart[node];
+	}
+
+	public int getChild(int node, int k) {
+		return children[childStart[node] + k];
+	}
+
+	public int getParent(int node) {
+		return parent[node];
+	}
+
+	/* returns the node which begins the track of the %node%, goes up by the parent */
+	public int getStartingIndex(int node) {
+		for (int steps = 0; parent[node] != -1 && steps < time.length; steps++) // steps stop on cycles
+			node = parent[node];
+		return node;
+	}
+
+	/* getStartingIndex for all nodes, calculated together in linear time */
+	public int[] getStartingIndexes() {
+		int n = time.length;
+		int[] roots = new int[n];
+		Arrays.fill(roots, -1);
+		int[] path = new int[n];
+		int len, c;
+		for (int i = 0; i < n; i++) {
+			len = 0;
+			c = i;
+			while (roots[c] == -1) { // go up until a node with known root
+				roots[c] = -2; // on the current path
+				path[len++] = c;
+				if (parent[c] == -1)
+					break;
+				c = parent[c];
+			}
+			int root = roots[c] >= 0 ? roots[c] : c; // c is the path top: has no parent or closes a cycle
+			for (int k = 0; k < len; k++)
+				roots[path[k]] = root;
+		}
+		return roots;
+	}
+
+	public Traversal newTraversal() {
+		return new Traversal();
+	}
+
+	/*
+	 * state of a walk over tracks: children of a node are marked as tracked from
+	 * the first one, the lineage itself is not changed. Remaining children of a
+	 * node are the ones not marked yet
+	 */
+	public class Traversal {
+		private int[] tracked = new int[time.length]; // number of marked children of the node
+
+		public int getRemainingChildCount(int node) {
+			return getChildCount(node) - tracked[node];
+		}
+
+		/* k-th remaining child */
+		public int getRemainingChild(int node, int k) {
+			return getChild(node, tracked[node] + k);
+		}
+
+		/* marks first "count" remaining children of the node as tracked */
+		public void markTracked(int node, int count) {
+			tracked[node] += count;
+		}
+
+		/*
+		 * returns the node which begins the remaining track of the %node%: goes up by
+		 * the parent while the arc from the parent is not marked
+		 */
+		public int getStartingIndex(int node) {
+			int p;
+			for (int steps = 0; steps < time.length; steps++) {
+				p = parent[node];
+				if (p == -1 || !hasRemainingChild(p, node))
+					break;
+				node = p;
+			}
+			return node;
+		}
+
+		private boolean hasRemainingChild(int node, int child) {
+			for (int k = childStart[node] + tracked[node]; k < childStart[node + 1]; k++)
+				if (children[k] == child)
+					return true;
+			return false;
+		}
+	}
+}
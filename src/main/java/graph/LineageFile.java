@@ -0,0 +1,221 @@
+package graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/*
+ * tracking results in a compact little-endian binary file: CTC tracks
+ * (index, start slice, end slice, parent index, the same as the txt result),
+ * mitosis windows of tracks and optionally the centroid and area of every
+ * tracked component. Layout:
+ *
+ *   int magic "CTRK", short version, short flags (1 - nodes present)
+ *   int slices, int width, int height
+ *   int tracksCount, int mitosisCount, int nodesCount
+ *   int[tracksCount] x 4: track index, start slice, end slice, parent
+ *   int[mitosisCount] x 3: track index, mitosis start, mitosis end
+ *   nodes: int track, int slice (0-based), float x, float y, int area,
+ *   each an array of nodesCount
+ *
+ * Arrays can be longer than their counts while the results are collected
+ */
+public class LineageFile {
+	private static final int magic = 0x4B525443; // "CTRK" in file byte order
+	public static final short version = 1;
+	private static final short nodesFlag = 1;
+	private static final int headerSize = 4 + 2 + 2 + 6 * 4;
+
+	public int slices, width, height;
+
+	public int tracksCount = 0;
+	public int[] trackIndex = new int[16], startSlice = new int[16], endSlice = new int[16],
+			parentIndex = new int[16];
+
+	public int mitosisCount = 0;
+	public int[] mitosisTrack = new int[16], mitosisStart = new int[16], mitosisEnd = new int[16];
+
+	/* optional, null if the file has no nodes */
+	public int nodesCount = 0;
+	public int[] nodeTrack, nodeSlice, nodeArea;
+	public float[] nodeX, nodeY;
+
+	public LineageFile(int slices, int width, int height, boolean withNodes) {
+		this.slices = slices;
+		this.width = width;
+		this.height = height;
+		if (withNodes) {
+			nodeTrack = new int[16];
+			nodeSlice = new int[16];
+			nodeArea = new int[16];
+			nodeX = new float[16];
+			nodeY = new float[16];
+		}
+	}
+
+	public boolean hasNodes() {
+		return nodeTrack != null;
+	}
+
+	public void addTrack(int index, int start, int end, int parent) {
+		if (tracksCount == trackIndex.length) {
+			int n = 2 * tracksCount;
+			trackIndex = Arrays.copyOf(trackIndex, n);
+			startSlice = Arrays.copyOf(startSlice, n);
+			endSlice = Arrays.copyOf(endSlice, n);
+			parentIndex = Arrays.copyOf(parentIndex, n);
+		}
+		trackIndex[tracksCount] = index;
+		startSlice[tracksCount] = start;
+		endSlice[tracksCount] = end;
+		parentIndex[tracksCount++] = parent;
+	}
+
+	public void addMitosis(int track, int start, int end) {
+		if (mitosisCount == mitosisTrack.length) {
+			int n = 2 * mitosisCount;
+			mitosisTrack = Arrays.copyOf(mitosisTrack, n);
+			mitosisStart = Arrays.copyOf(mitosisStart, n);
+			mitosisEnd = Arrays.copyOf(mitosisEnd, n);
+		}
+		mitosisTrack[mitosisCount] = track;
+		mitosisStart[mitosisCount] = start;
+		mitosisEnd[mitosisCount++] = end;
+	}
+
+	/* ignored if the file is without nodes */
+	public void addNode(int track, int slice, float x, float y, int area) {
+		if (!hasNodes())
+			return;
+		if (nodesCount == nodeTrack.length) {
+			int n = 2 * nodesCount;
+			nodeTrack = Arrays.copyOf(nodeTrack, n);
+			nodeSlice = Arrays.copyOf(nodeSlice, n);
+			nodeArea = Arrays.copyOf(nodeArea, n);
+			nodeX = Arrays.copyOf(nodeX, n);
+			nodeY = Arrays.copyOf(nodeY, n);
+		}
+		nodeTrack[nodesCount] = track;
+		nodeSlice[nodesCount] = slice;
+		nodeX[nodesCount] = x;
+		nodeY[nodesCount] = y;
+		nodeArea[nodesCount++] = area;
+	}
+
+	/* mitosis windows as MitosisInfo, for code working with it */
+	public MitosisInfo getMitosisInfo() {
+		MitosisInfo info = new MitosisInfo();
+		for (int i = 0; i < mitosisCount; i++)
+			info.addMitosisInfo(mitosisTrack[i], mitosisStart[i], mitosisEnd[i]);
+		return info;
+	}
+
+	public void write(String filename) throws IOException {
+		boolean nodes = hasNodes();
+		long size = headerSize + 4L * (4 * tracksCount + 3 * mitosisCount + (nodes ? 5 * nodesCount : 0));
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("lineage is too large: " + size + " bytes");
+		ByteBuffer b = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		b.putInt(magic).putShort(version).putShort(nodes ? nodesFlag : 0);
+		b.putInt(slices).putInt(width).putInt(height);
+		b.putInt(tracksCount).putInt(mitosisCount).putInt(nodes ? nodesCount : 0);
+		putInts(b, trackIndex, tracksCount);
+		putInts(b, startSlice, tracksCount);
+		putInts(b, endSlice, tracksCount);
+		putInts(b, parentIndex, tracksCount);
+		putInts(b, mitosisTrack, mitosisCount);
+		putInts(b, mitosisStart, mitosisCount);
+		putInts(b, mitosisEnd, mitosisCount);
+		if (nodes) {
+			putInts(b, nodeTrack, nodesCount);
+			putInts(b, nodeSlice, nodesCount);
+			putFloats(b, nodeX, nodesCount);
+			putFloats(b, nodeY, nodesCount);
+			putInts(b, nodeArea, nodesCount);
+		}
+		b.flip();
+
+		RandomAccessFile raf = new RandomAccessFile(filename, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.truncate(0);
+			while (b.hasRemaining())
+				channel.write(b);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/* reads the whole file with one mapping */
+	public static LineageFile read(String filename) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < headerSize)
+				throw new IOException(filename + " is not a lineage file");
+			MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			b.order(ByteOrder.LITTLE_ENDIAN);
+			if (b.getInt() != magic)
+				throw new IOException(filename + " is not a lineage file");
+			short fileVersion = b.getShort();
+			if (fileVersion > version)
+				throw new IOException(filename + " has lineage format version " + fileVersion + ", supported up to "
+						+ version);
+			boolean nodes = (b.getShort() & nodesFlag) != 0;
+			LineageFile f = new LineageFile(b.getInt(), b.getInt(), b.getInt(), nodes);
+			int nTracks = b.getInt(), nMitosis = b.getInt(), nNodes = b.getInt();
+			if (b.remaining() < 4L * (4 * nTracks + 3 * nMitosis + (nodes ? 5L * nNodes : 0)))
+				throw new IOException(filename + " is truncated");
+
+			f.tracksCount = nTracks;
+			f.trackIndex = getInts(b, nTracks);
+			f.startSlice = getInts(b, nTracks);
+			f.endSlice = getInts(b, nTracks);
+			f.parentIndex = getInts(b, nTracks);
+			f.mitosisCount = nMitosis;
+			f.mitosisTrack = getInts(b, nMitosis);
+			f.mitosisStart = getInts(b, nMitosis);
+			f.mitosisEnd = getInts(b, nMitosis);
+			if (nodes) {
+				f.nodesCount = nNodes;
+				f.nodeTrack = getInts(b, nNodes);
+				f.nodeSlice = getInts(b, nNodes);
+				f.nodeX = getFloats(b, nNodes);
+				f.nodeY = getFloats(b, nNodes);
+				f.nodeArea = getInts(b, nNodes);
+			}
+			return f;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void putInts(ByteBuffer b, int[] a, int n) {
+		b.asIntBuffer().put(a, 0, n);
+		b.position(b.position() + 4 * n);
+	}
+
+	private static void putFloats(ByteBuffer b, float[] a, int n) {
+		b.asFloatBuffer().put(a, 0, n);
+		b.position(b.position() + 4 * n);
+	}
+
+	private static int[] getInts(ByteBuffer b, int n) {
+		int[] a = new int[n];
+		b.asIntBuffer().get(a);
+		b.position(b.position() + 4 * n);
+		return a;
+	}
+
+	private static float[] getFloats(ByteBuffer b, int n) {
+		float[] a = new float[n];
+		b.asFloatBuffer().get(a);
+		b.position(b.position() + 4 * n);
+		return a;
+	}
+}
@@ -0,0 +1,207 @@
+package graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import ij.VirtualStack;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/*
+ * 16-bit label stack kept in a memory-mapped file instead of the java heap. The
+ * file is an uncompressed little-endian multi-page tiff from the start: header,
+ * ImageJ description and directories of all slices are written first, followed
+ * by the pixels of all slices one after another. Pixels are changed in the
+ * mapped region directly, so saving the stack is just flushing and moving the
+ * file. If the pixels go beyond 4 GB only the first directory is written, then
+ * ImageJ reads the slices as contiguous by "images=" in the description
+ */
+public class MappedLabelStack extends VirtualStack {
+	private static final int entrySize = 12;
+	private static final long maxOffset = 0xffffffffL; // classic tiff offsets are 32 bit
+
+	private File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private int width, height, nSlices;
+	private long dataOffset, sliceBytes;
+	private MappedByteBuffer[] mapped; // mapped on first access
+	private ShortBuffer[] slices; // views of the mapped pixels
+
+	/* creates the file with all pixels set to 0 */
+	public MappedLabelStack(File file, int width, int height, int nSlices) throws IOException {
+		super(width, height, null, null);
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.nSlices = nSlices;
+		sliceBytes = 2L * width * height;
+		mapped = new MappedByteBuffer[nSlices];
+		slices = new ShortBuffer[nSlices];
+
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+		ByteBuffer header = createHeader();
+		while (header.hasRemaining())
+			channel.write(header);
+		raf.setLength(dataOffset + sliceBytes * nSlices); // pixels are zeros, file is sparse
+	}
+
+	/* header, description and directories, sets dataOffset */
+	private ByteBuffer createHeader() {
+		byte[] description = ("ImageJ=1.51h\nimages=" + nSlices + "\nslices=" + nSlices + "\nloop=false\n\0")
+				.getBytes(StandardCharsets.US_ASCII);
+		int descriptionSize = (description.length + 1) & ~1; // directories start at even offset
+		int firstEntries = 11, entries = 10; // description is only in the first directory
+		int firstIfdSize = 2 + firstEntries * entrySize + 4, ifdSize = 2 + entries * entrySize + 4;
+
+		long dataEnd = 8 + descriptionSize + firstIfdSize + (long) (nSlices - 1) * ifdSize + sliceBytes * nSlices;
+		int nIfds = dataEnd <= maxOffset ? nSlices : 1;
+		dataOffset = 8 + descriptionSize + firstIfdSize + (long) (nIfds - 1) * ifdSize;
+
+		ByteBuffer b = ByteBuffer.allocate((int) dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+		b.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8 + descriptionSize);
+		b.put(description);
+		b.position(8 + descriptionSize);
+		for (int i = 0; i < nIfds; i++) {
+			int ifdStart = b.position();
+			boolean first = i == 0;
+			b.putShort((short) (first ? firstEntries : entries));
+			putEntry(b, 254, 4, 0); // new subfile type
+			putEntry(b, 256, 4, width);
+			putEntry(b, 257, 4, height);
+			putEntry(b, 258, 3, 16); // bits per sample
+			putEntry(b, 259, 3, 1); // no compression
+			putEntry(b, 262, 3, 1); // black is zero
+			if (first) {
+				b.putShort((short) 270).putShort((short) 2).putInt(description.length).putInt(8);
+			}
+			putEntry(b, 273, 4, (int) (dataOffset + sliceBytes * i)); // strip offset
+			putEntry(b, 277, 3, 1); // samples per pixel
+			putEntry(b, 278, 4, height); // rows per strip
+			putEntry(b, 279, 4, (int) sliceBytes); // strip byte count
+			int next = i + 1 < nIfds ? ifdStart + (first ? firstIfdSize : ifdSize) : 0;
+			b.putInt(next);
+		}
+		b.flip();
+		return b;
+	}
+
+	/* directory entry with one value, SHORT values are put in the first 2 bytes */
+	private static void putEntry(ByteBuffer b, int tag, int type, int value) {
+		b.putShort((short) tag).putShort((short) type).putInt(1);
+		if (type == 3)
+			b.putShort((short) value).putShort((short) 0);
+		else
+			b.putInt(value);
+	}
+
+	/* pixels of the slice (0-based) in the mapped file */
+	private synchronized ShortBuffer slice(int index) {
+		if (slices[index] == null) {
+			try {
+				mapped[index] = channel.map(FileChannel.MapMode.READ_WRITE, dataOffset + sliceBytes * index, sliceBytes);
+				slices[index] = mapped[index].order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+			} catch (IOException e) {
+				throw new RuntimeException("can't map slice " + index + " of " + file, e);
+			}
+		}
+		return slices[index];
+	}
+
+	/* slice index is 0-based */
+	public int get(int sliceIndex, int x, int y) {
+		return slice(sliceIndex).get(y * width + x) & 0xffff;
+	}
+
+	public void set(int sliceIndex, int x, int y, int value) {
+		slice(sliceIndex).put(y * width + x, (short) value);
+	}
+
+	/* copies the image into the slice */
+	public void setSlice(int sliceIndex, ImageProcessor ip) {
+		ShortBuffer buffer = slice(sliceIndex).duplicate();
+		buffer.position(0);
+		buffer.put((short[]) ip.convertToShortProcessor(false).getPixels());
+	}
+
+	/* copy of the slice (1-based, as in ImageStack) on the heap */
+	@Override
+	public ImageProcessor getProcessor(int n) {
+		short[] pixels = new short[width * height];
+		ShortBuffer buffer = slice(n - 1).duplicate();
+		buffer.position(0);
+		buffer.get(pixels);
+		return new ShortProcessor(width, height, pixels, null);
+	}
+
+	@Override
+	public Object getPixels(int n) {
+		return getProcessor(n).getPixels();
+	}
+
+	@Override
+	public void setPixels(Object pixels, int n) {
+		ShortBuffer buffer = slice(n - 1).duplicate();
+		buffer.position(0);
+		buffer.put((short[]) pixels);
+	}
+
+	@Override
+	public int getSize() {
+		return nSlices;
+	}
+
+	@Override
+	public String getSliceLabel(int n) {
+		return null;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return 16;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/* writes changed pixels to the file */
+	public synchronized void force() {
+		for (MappedByteBuffer m : mapped)
+			if (m != null)
+				m.force();
+	}
+
+	/*
+	 * saves the stack as tiff "target": the file is flushed and moved there, or
+	 * copied if it can't be moved. The stack stays readable
+	 */
+	public synchronized void saveAsTiff(File target) throws IOException {
+		force();
+		if (target.getCanonicalFile().equals(file.getCanonicalFile()))
+			return;
+		try {
+			Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			file = target;
+		} catch (IOException e) { // other file system, or the mapped file can't be moved
+			Files.copy(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/* closes the file, pixels mapped before stay valid until they are collected */
+	public synchronized void close() throws IOException {
+		force();
+		raf.close();
+	}
+}
@@ -6,9 +6,11 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
 
 public class MitosisInfo implements Serializable {
+	private static final long serialVersionUID = 8959832236417724399L; // of the class when .ser files were written
 	private HashMap<Integer, TrackMitosisInfo> infos;
 
 	public MitosisInfo() {
@@ -32,6 +34,17 @@ public class MitosisInfo implements Serializable {
 		return true;
 	}
 
+	/* adds mitosis windows to the lineage file, by track index */
+	public void addTo(LineageFile file) {
+		Integer[] tracks = infos.keySet().toArray(new Integer[infos.size()]);
+		Arrays.sort(tracks);
+		for (Integer track : tracks) {
+			TrackMitosisInfo info = infos.get(track);
+			file.addMitosis(info.trackIndex, info.mitosisStartSlice, info.mitosisEndSlice);
+		}
+	}
+
+	/* old format of mitosis info, results are written as LineageFile now */
 	public static void SerializeMitosisInfo(String filename, MitosisInfo info) {
 		System.out.println("Mitosis info: \n");
 		System.out.println(info.toString());
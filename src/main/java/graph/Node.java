@@ -38,6 +38,11 @@ public class Node {
 		return res;
 	}
 
+	@Override
+	public int hashCode() {
+		return 31 * t + i;
+	}
+
 	@Override
 	public String toString() {
 		return "Node [t=" + t + ", i=" + i + "]";
@@ -0,0 +1,66 @@
+package graph;
+
+import java.util.Arrays;
+
+/*
+ * map from node (time slice, index) to its index in the graph, with both
+ * values packed into one long key. Open addressing with linear probing, so no
+ * boxed keys or entries are created
+ */
+class NodeIndexMap {
+	private long[] keys;
+	private int[] values; // -1 marks an empty slot
+	private int size = 0;
+
+	NodeIndexMap(int capacity) {
+		int n = 16;
+		while (n < 2 * capacity)
+			n <<= 1;
+		keys = new long[n];
+		values = new int[n];
+		Arrays.fill(values, -1);
+	}
+
+	static long key(int t, int i) {
+		return ((long) t << 32) | (i & 0xffffffffL);
+	}
+
+	/* value for the key or -1 if there is no such key */
+	int get(long key) {
+		int mask = keys.length - 1;
+		for (int k = slot(key); values[k] != -1; k = (k + 1) & mask)
+			if (keys[k] == key)
+				return values[k];
+		return -1;
+	}
+
+	/* puts the value only if there is no such key, so the first added node is kept */
+	void putIfAbsent(long key, int value) {
+		int mask = keys.length - 1;
+		int k = slot(key);
+		for (; values[k] != -1; k = (k + 1) & mask)
+			if (keys[k] == key)
+				return;
+		keys[k] = key;
+		values[k] = value;
+		if (++size * 2 > keys.length)
+			grow();
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & (keys.length - 1);
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[2 * oldKeys.length];
+		values = new int[2 * oldValues.length];
+		Arrays.fill(values, -1);
+		size = 0;
+		for (int k = 0; k < oldKeys.length; k++)
+			if (oldValues[k] != -1)
+				putIfAbsent(oldKeys[k], oldValues[k]);
+	}
+}
@@ -6,8 +6,15 @@ import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import cellTracking.ImageComponentsAnalysis;
+import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.Roi;
 import ij.process.ImageProcessor;
@@ -29,6 +36,8 @@ import statistics.StandartDeviation;
  * */
 
 public class FormatSaver {
+	/* tracks calculated at the same time, 1 for calculation in the calling thread */
+	public int threads = Runtime.getRuntime().availableProcessors();
 
 	public void calculate(StackDetection stack, ImagePlus ch1, ImagePlus ch2, ImagePlus ratio,
 			String dir, String name) throws Exception {
@@ -53,9 +62,57 @@ public class FormatSaver {
 		makeHeaderFile(dir + "header.txt", columns, ';');
 
 		// create file for each track
-		for (TrackCTC track : stack.tracksCTC().tracksMap().values()) {
-			PrintWriter pw = new PrintWriter(
-					new File(dir + String.format(name + "StatisticsTrack%04d.txt", track.index())));
+		ArrayList<TrackCTC> tracks = new ArrayList<TrackCTC>(stack.tracksCTC().tracksMap().values());
+		if (threads <= 1 || tracks.size() <= 1) {
+			for (int i = 0; i < tracks.size(); i++) {
+				writeTrackStatistics(stack, columns, tracks.get(i), dir, name);
+				IJ.showProgress(i + 1, tracks.size());
+			}
+		} else
+			calculateParallel(stack, columns, tracks, dir, name);
+	}
+
+	/*
+	 * tracks are independent, so they are calculated by a pool of "threads"
+	 * workers, each track writing its own file. Images and detections are only
+	 * read. Progress is shown as tracks are completed, the first failure cancels
+	 * the rest and is thrown
+	 */
+	private void calculateParallel(final StackDetection stack, final ArrayList<PropertiesColumn> columns,
+			ArrayList<TrackCTC> tracks, final String dir, final String name) throws Exception {
+		for (PropertiesColumn column : columns)
+			column.imp.getStack(); // stacks are set up here, not by the workers
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, tracks.size()));
+		CompletionService<Void> completion = new ExecutorCompletionService<Void>(pool);
+		try {
+			for (final TrackCTC track : tracks)
+				completion.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						writeTrackStatistics(stack, columns, track, dir, name);
+						return null;
+					}
+				});
+			for (int done = 1; done <= tracks.size(); done++) {
+				try {
+					completion.take().get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					throw cause instanceof Exception ? (Exception) cause : e;
+				}
+				IJ.showProgress(done, tracks.size());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/* file with statistics of the track, a line per slice */
+	private void writeTrackStatistics(StackDetection stack, ArrayList<PropertiesColumn> columns, TrackCTC track,
+			String dir, String name) throws Exception {
+		PrintWriter pw = new PrintWriter(
+				new File(dir + String.format(name + "StatisticsTrack%04d.txt", track.index())));
+		try {
 			int startSlice = track.startSlice();
 			int endSlice = track.endSlice();
 			for (int slice = startSlice; slice <= endSlice; ++slice) {
@@ -69,7 +126,7 @@ public class FormatSaver {
 				// now write the string into corresponding track file
 				pw.write(statStr.toString());
 			}
-
+		} finally {
 			pw.close();
 		}
 	}
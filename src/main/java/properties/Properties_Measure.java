@@ -10,6 +10,7 @@ import java.util.Locale;
 
 import cellTracking.Cell_Tracker;
 import cellTracking.ImageFunctions;
+import graph.LineageFile;
 import graph.MitosisInfo;
 import ij.IJ;
 import ij.ImageJ;
@@ -78,7 +79,7 @@ public class Properties_Measure implements PlugIn {
 				askTrackingResultsFolder = true;
 			}
 
-			String mitosisInfoName = scanner.fileNameBySuffix("mitosis_info.ser");
+			String mitosisInfoName = mitosisInfoFileName(scanner);
 			if (mitosisInfoName.isEmpty()) {
 				IJ.log("No mitosis information file was found");
 				askTrackingResultsFolder = true;
@@ -159,7 +160,7 @@ public class Properties_Measure implements PlugIn {
 						launchTracking = true;
 					}
 
-					mitosisInfoName = scanner.fileNameBySuffix("mitosis_info.ser");
+					mitosisInfoName = mitosisInfoFileName(scanner);
 					if (mitosisInfoName.isEmpty()) {
 						IJ.log("No mitosis information file was found");
 						launchTracking = true;
@@ -234,9 +235,16 @@ public class Properties_Measure implements PlugIn {
 			// MitosisInfo mitosisInfo = MitosisInfo.DeserializeMitosisInfo(dataDir +
 			// System.getProperty("file.separator") + mitosisInfoName);
 			System.out.println("mitosis info file" + infoFilePath);
-			MitosisInfo mitosisInfo = MitosisInfo.DeserializeMitosisInfo(infoFilePath);
-			if (mitosisInfo == null)
-				mitosisInfo = new MitosisInfo();
+			MitosisInfo mitosisInfo;
+			LineageFile lineage = null;
+			if (infoFilePath.endsWith(".bin")) { // tracks are read from it too, the txt is not parsed
+				lineage = LineageFile.read(infoFilePath);
+				mitosisInfo = lineage.getMitosisInfo();
+			} else {
+				mitosisInfo = MitosisInfo.DeserializeMitosisInfo(infoFilePath);
+				if (mitosisInfo == null)
+					mitosisInfo = new MitosisInfo();
+			}
 
 			// filling roi from ctc result image
 			StackDetection stackDetection = new StackDetection();
@@ -244,7 +252,10 @@ public class Properties_Measure implements PlugIn {
 			System.out.println("Stack filled");
 			IJ.log("Stack with ROIs filled");
 
-			stackDetection.fillTracks(txtPath);
+			if (lineage != null)
+				stackDetection.fillTracks(lineage);
+			else
+				stackDetection.fillTracks(txtPath);
 			System.out.println("Tracks map filled");
 			IJ.log("Track information filled");
 
@@ -275,6 +286,12 @@ public class Properties_Measure implements PlugIn {
 		}
 	}
 
+	/* lineage file written by the tracker, or mitosis info of older results */
+	private static String mitosisInfoFileName(SimpleDirectoryScanner scanner) {
+		String name = scanner.fileNameBySuffix("lineage.bin");
+		return name.isEmpty() ? scanner.fileNameBySuffix("mitosis_info.ser") : name;
+	}
+
 	private void subtractBackground(ImagePlus imp, int bg) {
 		ImageStack stack = imp.getStack();
 		for (int i = 0; i < stack.size(); ++i) {
@@ -5,6 +5,7 @@ import java.util.HashMap;
 
 import cellTracking.ImageFunctions;
 import graph.CellTrackingGraph;
+import graph.LineageFile;
 import graph.MitosisInfo;
 import ij.ImagePlus;
 import ij.ImageStack;
@@ -44,6 +45,10 @@ public class StackDetection {
 		tracks.fillTracks(ctcResultTxt, this);
 	}
 
+	public void fillTracks(LineageFile lineage) {
+		tracks.fillTracks(lineage, this);
+	}
+
 	public boolean checkTrackCorrectness(int trackIndex, int startSlice, int endSlice) {
 		System.out.println("Check: stack size is "+stack.size()); 
 		for (int i = startSlice; i <= endSlice; i++) {
@@ -23,15 +23,27 @@ public class TrackCTC {
 			throw new Exception(String.format("Incorrent line in ctc tracks file"));
 		}
 		
-		_index = Integer.parseInt(split[0]);
-		_startSlice = Integer.parseInt(split[1]);
-		_endSlice = Integer.parseInt(split[2]);
-		_parentIndex = Integer.parseInt(split[3]);
+		System.out.println(trackTxtLine);
+		init(Integer.parseInt(split[0]), Integer.parseInt(split[1]), Integer.parseInt(split[2]),
+				Integer.parseInt(split[3]), filledStack);
+	}
+
+	/* track from already parsed values, e.g. from the lineage file */
+	public TrackCTC(int index, int startSlice, int endSlice, int parentIndex, StackDetection filledStack)
+			throws Exception {
+		init(index, startSlice, endSlice, parentIndex, filledStack);
+	}
+
+	private void init(int index, int startSlice, int endSlice, int parentIndex, StackDetection filledStack)
+			throws Exception {
+		_index = index;
+		_startSlice = startSlice;
+		_endSlice = endSlice;
+		_parentIndex = parentIndex;
 		
 		if (_startSlice >_endSlice)
 			throw new Exception(String.format("Incorrect slice interval for track %d", _index));
 		
-		System.out.println(trackTxtLine);
 		System.out.format("index %d start%d end %d %n", _index, _startSlice, _endSlice);
 		
 		if (!filledStack.checkTrackCorrectness(_index, _startSlice, _endSlice))
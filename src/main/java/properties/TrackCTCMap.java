@@ -6,6 +6,8 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
 
+import graph.LineageFile;
+import ij.IJ;
 import ij.gui.Roi;
 
 public class TrackCTCMap {
@@ -42,6 +44,24 @@ public class TrackCTCMap {
 		}
 	}
 	
+	/* the same from tracks of the lineage file, without parsing the txt result */
+	public void fillTracks(LineageFile lineage, StackDetection filledStack) {
+		IJ.log("Filling tracks from lineage file");
+		try {
+			for (int i = 0; i < lineage.tracksCount; i++) {
+				TrackCTC track = new TrackCTC(lineage.trackIndex[i], lineage.startSlice[i], lineage.endSlice[i],
+						lineage.parentIndex[i], filledStack);
+
+				if (_tracks.containsKey(track.index()))
+					throw new Exception(String.format("Track with index %d already exists.", track.index()));
+
+				_tracks.put(track.index(), track);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
 	public int trackStartSlice(int trackIndex) {
 		TrackCTC track = _tracks.get(trackIndex);
 		return track.startSlice();
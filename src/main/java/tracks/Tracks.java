@@ -4,6 +4,8 @@ import java.util.ArrayList;
 
 import tracks.Track;
 import graph.Graph;
+import graph.Lineage;
+import cellTracking.Trace;
 
 public class Tracks {
 	// list of tracks
@@ -30,41 +32,37 @@ public class Tracks {
 
 	// fills array of tracks. Graph must not have any divisions by that moment
 	void fillTracks(Graph gr) throws Exception {
-		ArrayList<ArrayList<Integer>> adj = Graph.copyAdjList(gr.getAdjList());
-		System.out.println(adj.toString());
-		ArrayList<Integer> childs;
-		ArrayList<Boolean> seenAdj = new ArrayList<Boolean>(adj.size());
-		for (int i = 0; i < adj.size(); i++)
-			seenAdj.add(false);
-		// System.out.println(seenAdj.toString());
+		if (Trace.isEnabled(Trace.Subsystem.GRAPH, Trace.Level.DEBUG))
+			Trace.log(Trace.Subsystem.GRAPH, Trace.Level.DEBUG, gr.getAdjList().toString());
+		Lineage lineage = new Lineage(gr);
+		boolean[] seenAdj = new boolean[lineage.nodesCount()];
+		int[] startIndexes = lineage.getStartingIndexes();
 		Track tr;
 		int trackLength;
 		int startIndex = -1, childIndex = -1;
 
-		for (int i = 0; i < adj.size(); i++) {
-			startIndex = Graph.getStartingAdjIndex(adj, i);
+		for (int i = 0; i < lineage.nodesCount(); i++) {
+			startIndex = startIndexes[i];
 			// System.out.println(startIndex);
-			if (seenAdj.get(startIndex))
+			if (seenAdj[startIndex])
 				continue;
 
 			trackLength = 1;
-			childs = adj.get(startIndex);
 			childIndex = startIndex; // childIndex has also the meaning of the last index
-			seenAdj.set(startIndex, true);
+			seenAdj[startIndex] = true;
 
-			while (!childs.isEmpty()) {
-				if (childs.size() > 1) {
+			while (lineage.getChildCount(childIndex) != 0) {
+				if (lineage.getChildCount(childIndex) > 1) {
 					throw new Exception(
 							"Child size > 1 occured where it shouldn't be. Maybe you are using this method in the wrong place?");
 				}
-				childIndex = childs.get(0);
-				childs = adj.get(childIndex);
-				seenAdj.set(childIndex, true);
+				childIndex = lineage.getChild(childIndex, 0);
+				seenAdj[childIndex] = true;
 				++trackLength;
 			}
 
-			tr = new Track(startIndex, childIndex, gr.getNodeSliceByGlobalIndex(startIndex),
-					gr.getNodeSliceByGlobalIndex(childIndex), gr.getNodeIndexByGlobalIndex(startIndex), trackLength);
+			tr = new Track(startIndex, childIndex, lineage.getTime(startIndex), lineage.getTime(childIndex),
+					lineage.getComponentIndex(startIndex), trackLength);
 			tracks.add(tr);
 		}
 	}
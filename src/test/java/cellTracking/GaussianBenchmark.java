@@ -0,0 +1,85 @@
+package cellTracking;
+
+import java.util.Random;
+
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+/*
+ * compares recursive gaussian with the FIR one: time and error of the blur and
+ * of the blob detection response (lambda2 + 2*lambda1) for different sigmas.
+ * Errors are relative to the maximum absolute value of the FIR result. Not
+ * part of the plugin, run from the test classpath
+ */
+public class GaussianBenchmark {
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		float[] sigmas = { 2, 3, 4, 6, 9, 12, 16, 32, 50 };
+		ImageProcessor image = testImage(size, size, 200);
+
+		Gaussian fir = new Gaussian(Gaussian.Mode.FIR);
+		Gaussian recursive = new Gaussian(Gaussian.Mode.RECURSIVE);
+
+		System.out.format("image %d x %d %n", size, size);
+		System.out.println("sigma  fir ms  rec ms  blur max err  blur mean err  response max err  response mean err");
+		for (float sigma : sigmas) {
+			ImageProcessor blurFir = image.duplicate();
+			long t0 = System.nanoTime();
+			fir.GaussianBlur(blurFir, sigma);
+			long t1 = System.nanoTime();
+			ImageProcessor blurRec = image.duplicate();
+			recursive.GaussianBlur(blurRec, sigma);
+			long t2 = System.nanoTime();
+
+			Hessian hessFir = new Hessian(image, Gaussian.Mode.FIR);
+			hessFir.calculateHessian(sigma);
+			Hessian hessRec = new Hessian(image, Gaussian.Mode.RECURSIVE);
+			hessRec.calculateHessian(sigma);
+			double[] blurErr = errors(blurFir, blurRec);
+			double[] respErr = errors(response(hessFir), response(hessRec));
+
+			System.out.format("%5.1f  %6.1f  %6.1f  %12.2e  %13.2e  %16.2e  %17.2e %n", sigma, (t1 - t0) / 1e6,
+					(t2 - t1) / 1e6, blurErr[0], blurErr[1], respErr[0], respErr[1]);
+		}
+	}
+
+	/* random gaussian blobs of different sizes, both dark and bright */
+	static ImageProcessor testImage(int w, int h, int blobs) {
+		Random random = new Random(1);
+		FloatProcessor ip = new FloatProcessor(w, h);
+		float[] pixels = (float[]) ip.getPixels();
+		for (int k = 0; k < blobs; k++) {
+			int cx = random.nextInt(w), cy = random.nextInt(h);
+			double s = 3 + random.nextInt(30);
+			double amp = random.nextBoolean() ? 1 : -1;
+			int r = (int) (4 * s);
+			for (int y = Math.max(0, cy - r); y < Math.min(h, cy + r); y++)
+				for (int x = Math.max(0, cx - r); x < Math.min(w, cx + r); x++)
+					pixels[y * w + x] += amp * Math.exp(-((x - cx) * (x - cx) + (y - cy) * (y - cy)) / (2 * s * s));
+		}
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] += 0.05 * random.nextGaussian();
+		ImageFunctions.normalize(ip, 0, 1);
+		return ip;
+	}
+
+	static ImageProcessor response(Hessian hessian) {
+		return hessian.getResponse(Hessian.Response.LAMBDA2_PLUS_2LAMBDA1);
+	}
+
+	/* max and mean absolute difference, divided by max absolute value of "reference" */
+	static double[] errors(ImageProcessor reference, ImageProcessor ip) {
+		double maxRef = 0, maxErr = 0, sumErr = 0, d;
+		for (int i = 0; i < reference.getPixelCount(); i++) {
+			maxRef = Math.max(maxRef, Math.abs(reference.getf(i)));
+			d = Math.abs(reference.getf(i) - ip.getf(i));
+			maxErr = Math.max(maxErr, d);
+			sumErr += d;
+		}
+		if (maxRef == 0)
+			maxRef = 1;
+		double[] res = { maxErr / maxRef, sumErr / reference.getPixelCount() / maxRef };
+		return res;
+	}
+}
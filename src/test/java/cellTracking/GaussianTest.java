@@ -0,0 +1,48 @@
+package cellTracking;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ij.process.ImageProcessor;
+
+/*
+ * recursive gaussian must stay close to the FIR one, for the blur and for the
+ * blob detection response. Bounds are a few times the errors measured by
+ * GaussianBenchmark
+ */
+public class GaussianTest {
+	private static final float[] sigmas = { 2, 3, 4, 6, 9, 12, 16, 32, 50 };
+	private static final ImageProcessor image = GaussianBenchmark.testImage(256, 256, 200);
+
+	@Test
+	public void recursiveBlurIsCloseToFir() {
+		Gaussian fir = new Gaussian(Gaussian.Mode.FIR);
+		Gaussian recursive = new Gaussian(Gaussian.Mode.RECURSIVE);
+		for (float sigma : sigmas) {
+			ImageProcessor blurFir = image.duplicate();
+			fir.GaussianBlur(blurFir, sigma);
+			ImageProcessor blurRec = image.duplicate();
+			recursive.GaussianBlur(blurRec, sigma);
+
+			double[] err = GaussianBenchmark.errors(blurFir, blurRec);
+			assertTrue("blur max error " + err[0] + " for sigma " + sigma, err[0] < 0.02);
+			assertTrue("blur mean error " + err[1] + " for sigma " + sigma, err[1] < 0.005);
+		}
+	}
+
+	@Test
+	public void recursiveHessianResponseIsCloseToFir() {
+		for (float sigma : sigmas) {
+			Hessian hessFir = new Hessian(image, Gaussian.Mode.FIR);
+			hessFir.calculateHessian(sigma);
+			Hessian hessRec = new Hessian(image, Gaussian.Mode.RECURSIVE);
+			hessRec.calculateHessian(sigma);
+
+			double[] err = GaussianBenchmark.errors(GaussianBenchmark.response(hessFir),
+					GaussianBenchmark.response(hessRec));
+			assertTrue("response max error " + err[0] + " for sigma " + sigma, err[0] < 0.15);
+			assertTrue("response mean error " + err[1] + " for sigma " + sigma, err[1] < 0.015);
+		}
+	}
+}